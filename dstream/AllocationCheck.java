@@ -0,0 +1,118 @@
+import dstream.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Checks that the steady-state shuffle path allocates little more per
+ * item than the received items themselves.
+ * Must run on two or more ranks of a communicator that encodes messages,
+ * i.e. socket or MPJ, with the same arguments on every rank, e.g.
+ *   java -Ddstream.comm=socket -Ddstream.hosts=... -Ddstream.rank=N dstream.ComputeNode AllocationCheck [ROUNDS [ITEMS]]
+ * Each round shuffles ITEMS strings and ITEMS longs per node (default
+ * 100000), with the same items every round. The baseline of a round is
+ * what decoding its items takes: the bytes allocated by the current
+ * thread to decode ITEMS strings encoded with the default codec, plus
+ * ITEMS longs. Over the rounds after WARMUP, the BufferPool must serve
+ * nearly every buffer (a release can race with the next acquire, so a
+ * few misses remain), and the bytes allocated by the process per round,
+ * as reported by the ThreadMXBean, must stay within FACTOR times the
+ * baseline.
+ * Exits with status 1 on the nodes where either check fails.
+ */
+public class AllocationCheck
+{
+	private static final int WARMUP = 3; // Rounds before measuring
+	private static final double FACTOR = 1.5; // Largest tolerated ratio of the bytes allocated per round to the baseline
+	private static final long SLACK = 1 << 20; // Bytes per round tolerated for unrelated activity, e.g. JIT
+	private static final int MISS_RATE = 100; // At most one pool miss per MISS_RATE buffers acquired
+
+	public static void main(String[] argv) throws IOException
+	{
+		int rounds = (argv.length > 0 ? Integer.parseInt(argv[0]) : 10);
+		int items = (argv.length > 1 ? Integer.parseInt(argv[1]) : 100000);
+		ComputeGroup grp = ComputeGroup.getCluster();
+		ComputeNode self = ComputeNode.getSelf();
+		if (grp.size() < 2 || "local".equals(System.getProperty("dstream.comm")))
+		{
+			System.err.println("AllocationCheck: Needs two or more ranks of a communicator that encodes messages");
+			System.exit(1);
+		}
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		mx.setThreadAllocatedMemoryEnabled(true);
+		int rank = grp.indexOf(self);
+		String[] strings = IntStream.range(0, items).mapToObj(i -> "item-" + rank + "-" + i).toArray(String[]::new);
+		long baseline = decodeBytes(strings, mx) + (long) Long.BYTES * items;
+		long[] bytes = new long[rounds];
+		long[] misses = new long[rounds];
+		long[] acquired = new long[rounds];
+		for (int r = 0; r < rounds; r++)
+		{
+			long missesBefore = CommMetrics.getPoolMisses();
+			long hitsBefore = CommMetrics.getPoolHits();
+			long bytesBefore = allocated(mx);
+			long n = DistributedStream.of(strings).distribute().count();
+			n += DistributedLongStream.range(0, (long) items * grp.size(), grp).distribute().count();
+			bytes[r] = allocated(mx) - bytesBefore;
+			misses[r] = CommMetrics.getPoolMisses() - missesBefore;
+			acquired[r] = misses[r] + CommMetrics.getPoolHits() - hitsBefore;
+			if (n != 2L * items * grp.size())
+			{
+				System.err.println(self.getName() + ": AllocationCheck: Round " + r + " shuffled " + n + " items");
+				System.exit(1);
+			}
+		}
+		boolean ok = true;
+		long missed = 0, total = 0;
+		System.out.println(self.getName() + ": Baseline: " + baseline + " bytes per round (" + baseline / (2 * items) + " per item)");
+		for (int r = WARMUP; r < rounds; r++)
+		{
+			System.out.println(self.getName() + ": Round " + r + ": " + bytes[r] + " bytes allocated ("
+				+ bytes[r] / (2 * items) + " per received item), " + misses[r] + " pool misses of " + acquired[r]);
+			if (bytes[r] > baseline * FACTOR + SLACK)
+				ok = false;
+			missed += misses[r];
+			total += acquired[r];
+		}
+		if (missed * MISS_RATE > total)
+			ok = false;
+		System.out.println(self.getName() + ": AllocationCheck " + (ok ? "passed" : "FAILED") + ", pool hits=" + CommMetrics.getPoolHits() + " misses=" + CommMetrics.getPoolMisses());
+		if (!ok)
+			System.exit(1);
+	}
+
+	// Fewest bytes allocated by the current thread to decode the items, over a few runs
+	private static long decodeBytes(String[] items, com.sun.management.ThreadMXBean mx) throws IOException
+	{
+		Codec<Object> codec = Codec.getDefault();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutput out = codec.open(bos);
+		for (String s: items)
+			codec.write(out, s);
+		((Flushable) out).flush();
+		byte[] encoded = bos.toByteArray();
+		Object[] decoded = new Object[items.length];
+		long least = Long.MAX_VALUE;
+		for (int run = 0; run < WARMUP + 2; run++)
+		{
+			long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+			DataInput in = codec.open(new ByteArrayInputStream(encoded));
+			for (int i = 0; i < decoded.length; i++)
+				decoded[i] = codec.read(in);
+			least = Math.min(least, mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+		}
+		return least;
+	}
+
+	// Bytes allocated so far by the live threads of the process
+	private static long allocated(com.sun.management.ThreadMXBean mx)
+	{
+		long total = 0;
+		for (long b: mx.getThreadAllocatedBytes(mx.getAllThreadIds()))
+			if (b > 0)
+				total += b;
+		return total;
+	}
+}
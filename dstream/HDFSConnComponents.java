@@ -76,7 +76,7 @@ public class HDFSConnComponents
 					return Stream.of(new Edge(v2, v1));
 				return null;
 			})
-			.distribute(e -> (int) e.v1)
+			.distribute(ComputeGroup.getCluster(), e -> (int) e.v1, Edge.CODEC)
 			.localForEach(e ->
 			{
 				HashSet<Long> s = new HashSet<>();
@@ -129,6 +129,23 @@ class Edge implements Serializable
 {
 	public long v1, v2; // Vertices: v1 -> v2
 
+	// Encodes an edge as two long integers
+	static final Codec<Edge> CODEC = new Codec<Edge>()
+	{
+		@Override
+		public void write(DataOutput out, Edge e) throws IOException
+		{
+			out.writeLong(e.v1);
+			out.writeLong(e.v2);
+		}
+
+		@Override
+		public Edge read(DataInput in) throws IOException
+		{
+			return new Edge(in.readLong(), in.readLong());
+		}
+	};
+
 	public Edge(long v1, long v2)
 	{
 		this.v1 = v1;
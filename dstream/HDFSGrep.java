@@ -26,7 +26,7 @@ public class HDFSGrep
 	{
 		Pattern match = Pattern.compile(re);
 		// Find lines containing the regular expression
-		DistributedMap<String, Long> localFound = lines
+		DistributedMap<String, Long> totalFound = lines
 			.parallelStream()
 			.flatMap(line ->
 			{
@@ -36,19 +36,8 @@ public class HDFSGrep
 					li.add(m.group());
 				return li.stream();
 			})
-			// Group local occurrences and count
-			.localCollect(Collectors.groupingBy(s -> s, DistributedHashMap<String, Long>::new,
-				Collectors.counting()));
-		// Merge with all occurrences
-		DistributedMap<String, Long> totalFound = localFound
-			.entrySet()
-			.parallelStream()
-			.map(e -> new AbstractMap.SimpleEntry<>(e))
-			.distribute(e -> e.getKey().hashCode())
-			.localCollect(Collectors.groupingBy(e -> e.getKey(),
-				DistributedHashMap<String, Long>::new,
-				Collectors.summingLong(e -> (long) e.getValue())));
-		localFound = null;
+			// Count all occurrences, combining local counts before the shuffle
+			.reduceByKey(s -> s, s -> 1L, Long::sum);
 		// Store results
 		totalFound
 			.entrySet()
@@ -28,59 +28,85 @@ public class HDFSPageRank
 		Pattern delim = Pattern.compile("\\t");
 		// Directed edges: (from, (to1, to2, to3))
 		System.out.println("Loading links");
-		Map<String, List<String>> localLinks = lines
+		DistributedMap<String, List<String>> links = lines
 			.parallelStream()
 			.map(s -> {
 				String[] parts = delim.split(s);
 				return new P<String, String>(parts[0], parts[1]);
 			})
-			.distribute(p -> p.getKey().hashCode())
+			.distribute(ComputeGroup.getCluster(), p -> p.getKey().hashCode(), CODEC)
 			.localDistinct()
-			.localCollect(Collectors.groupingByConcurrent(p -> p.getKey(),
+			.localCollect(Collectors.groupingByConcurrent(p -> p.getKey(), PageRankMap::new,
 				Collectors.mapping(p -> p.getValue(), Collectors.toList())));
-		DistributedMap<String, List<String>> links = DistributedMap.wrap(localLinks);
 
 		System.out.println(links.size() + " links loaded.");
 		// Initialise ranks to 1.0
-		Map<String, Double> localRanks = links
+		DistributedMap<String, Double> ranks = links
 			.keySet()
 			.parallelStream()
 			.localCollect(Collectors.toConcurrentMap(s -> s, s -> 1.0,
-				(a, b) -> a));
-		DistributedMap<String, Double> ranks = DistributedMap.wrap(localRanks);
+				(a, b) -> a, PageRankMap::new));
 
 		for (int it = 0; it < iterations; it++)
 		{
 			System.out.println("Iteration " + (it + 1));
-			final DistributedMap<String, Double> curRanks = ranks;
 			// Calculate contribution to destinations
-			Map<String, Double> localContribs = links
-				.entrySet()
-				.parallelStream()
-				.flatMap(e -> {
+			// Links and ranks are partitioned alike, so the join is local
+			DistributedMap<String, Double> contribs = links
+				.leftJoin(ranks, (e, rank) -> {
 					double size = (double) e.getValue().size();
+					double r = (rank != null ? rank : 0.0);
 					return e
 						.getValue()
 						.stream()
-						.map(url -> new P<String, Double>(url,
-							curRanks.getOrDefault(e.getKey(), 0.0) / size));
+						.map(url -> new P<String, Double>(url, r / size));
 				})
-				.distribute(p -> p.getKey().hashCode())
+				.flatMap(s -> s)
+				.distribute(ComputeGroup.getCluster(), p -> p.getKey().hashCode(), CODEC)
 				// Add contributions for each destination together
 				.localCollect(Collectors.toConcurrentMap(
 					p -> p.getKey(), p -> p.getValue(),
-					(v1, v2) -> v1 + v2));
-			DistributedMap<String, Double> contribs = DistributedMap.wrap(localContribs);
+					(v1, v2) -> v1 + v2, PageRankMap::new));
 			// Adjust ranks
-			localRanks = contribs
+			ranks = contribs
 				.entrySet()
 				.parallelStream()
 				.map(p -> new P<>(p.getKey(), p.getValue() * 0.85 + 0.15))
-				.localCollect(Collectors.toConcurrentMap(P::getKey, P::getValue, (v1, v2) -> v1));
-			ranks = DistributedMap.wrap(localRanks);
+				.localCollect(Collectors.toConcurrentMap(P::getKey, P::getValue, (v1, v2) -> v1, PageRankMap::new));
+		}
+	}
+
+	// Map of URLs partitioned by hash code, like the shuffles above
+	private static class PageRankMap<V> extends DistributedConcurrentHashMap<String, V>
+	{
+		public PageRankMap()
+		{
+			super(ComputeGroup.getCluster(), Partitioner.hash());
 		}
 	}
 
+	// Encodes shuffled pairs without Java serialisation
+	private static final CompactCodec CODEC = Codec.compact();
+
+	static
+	{
+		CODEC.register(P.class, new Codec<P>()
+		{
+			@Override
+			public void write(DataOutput out, P p) throws IOException
+			{
+				CODEC.write(out, p.k);
+				CODEC.write(out, p.v);
+			}
+
+			@Override
+			public P read(DataInput in) throws IOException
+			{
+				return new P((Serializable) CODEC.read(in), (Serializable) CODEC.read(in));
+			}
+		});
+	}
+
 	// Represents a key-value pair
 	private static class P<T extends Serializable, U extends Serializable>
 		implements Serializable
@@ -24,25 +24,12 @@ public class HDFSWordCount
 		DistributedCollection<String> result)
 	{
 		Pattern delim = Pattern.compile("\\s+");
-		// Get local word counts
-		Map<String, Long> localCount = lines
+		// Count words, combining local counts before the shuffle
+		lines
 			.parallelStream()
 			.flatMap(line -> Stream.of(delim.split(line)))
-			.localCollect(Collectors.groupingByConcurrent(w -> w, Collectors.counting()));
-		DistributedMap<String, Long> localCountDistrib = DistributedMap.wrap(localCount);
-		// Shuffle
-		Map<String, Long> totalCount = localCountDistrib
-			.entrySet()
-			.parallelStream()
-			.map(e -> new AbstractMap.SimpleEntry<>(e)) // Map.Entry is not serialisable
-			.distribute(e -> e.getKey().hashCode())
-			.localCollect(Collectors.groupingByConcurrent(e -> e.getKey(),
-				Collectors.summingLong(e -> (long) e.getValue())));
-		DistributedMap<String, Long> totalCountDistrib = DistributedMap.wrap(totalCount);
-		// Get total counts
-		totalCountDistrib
-			.entrySet()
-			.stream()
+			.distributeAndCombine(w -> w, w -> 1L, Long::sum)
+			.sequential()
 			.localForEach(e -> { result.add("(" + e.getKey() + "," + e.getValue() + ")"); });
 	}
 }
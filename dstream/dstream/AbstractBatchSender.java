@@ -0,0 +1,220 @@
+package dstream;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Buffers outgoing data items per destination node and sends them in batches.
+ * A batch is sent when it is full, or when it has been waiting for longer
+ * than the flush interval.
+ * Batches are sent with non-blocking operations, so that the thread adding
+ * items carries on while they are transferred. At most INFLIGHT batches
+ * per destination are in flight at a time.
+ * Flow control is credit-based: at most CREDITS batches per destination can
+ * be sent but not yet consumed by the receiver, which grants credit back
+ * on a separate tag as it consumes them (see CreditGate). Adding items
+ * blocks while a destination has no credit left, so the memory used by a
+ * shuffle is bounded whatever the speed of the receivers.
+ * Batches are reused once sent, when the subclass allows it, so that a
+ * steady shuffle does not allocate new batches.
+ * Subclasses provide the batch representation (object or primitive arrays)
+ * and the transport calls for sending it.
+ * @param <B> Batch type, an array of the item type.
+ */
+abstract class AbstractBatchSender<B>
+{
+	static final int BATCH = Integer.getInteger("dstream.batch", 1024); // Items per batch
+	static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("dstream.flush", 50));
+	static final int INFLIGHT = Integer.getInteger("dstream.inflight", 4); // Batches in flight per destination
+
+	protected final ComputeGroup dst;
+	protected final int tag;
+	protected final int creditTag;
+	protected final ShuffleStats stats;
+	protected final Object[] lock;
+	private final Object[] buf;
+	private final int[] count;
+	private final long[] since;
+	private final AtomicLong nextCheck;
+	private final ConcurrentLinkedQueue<CompletableFuture<?>>[] inflight;
+	private final ConcurrentLinkedQueue<B> spare = new ConcurrentLinkedQueue<>(); // Sent batches for reuse
+	private final CreditGate credit;
+
+	/**
+	 * Creates a sender with one outgoing batch per destination node.
+	 * @param dst Destination compute group. Items are added by index in this group.
+	 * @param tag Tag value.
+	 * @param creditTag Tag on which receivers grant credit.
+	 */
+	protected AbstractBatchSender(ComputeGroup dst, int tag, int creditTag)
+	{
+		this.dst = dst;
+		this.tag = tag;
+		this.creditTag = creditTag;
+		stats = ComputeNode.getSelf().getShuffleStats();
+		int size = dst.size();
+		lock = new Object[size];
+		buf = new Object[size];
+		count = new int[size];
+		since = new long[size];
+		inflight = new ConcurrentLinkedQueue[size];
+		credit = new CreditGate(creditTag);
+		for (int i = 0; i < size; i++)
+		{
+			lock[i] = new Object();
+			buf[i] = newBatch();
+			inflight[i] = new ConcurrentLinkedQueue<>();
+		}
+		nextCheck = new AtomicLong(System.nanoTime() + FLUSH_NANOS);
+	}
+
+	/**
+	 * Allocates an empty batch of BATCH items.
+	 */
+	protected abstract B newBatch();
+
+	/**
+	 * Returns a copy of the first n items of a batch.
+	 */
+	protected abstract B trim(B batch, int n);
+
+	/**
+	 * Starts sending a batch to the specified node.
+	 * The whole array is sent.
+	 * @return Future completed when the batch has been sent.
+	 */
+	protected abstract CompletableFuture<?> send(B batch, int rank);
+
+	/**
+	 * Prepares a batch for reuse once it has been sent.
+	 * @return False if the batch cannot be reused, e.g. as it was trimmed
+	 * or handed over by reference.
+	 */
+	protected abstract boolean recycle(B batch);
+
+	/**
+	 * Starts sending an end-of-data marker to the specified node.
+	 * @return Future completed when the marker has been sent.
+	 */
+	protected abstract CompletableFuture<?> sendEnd(int rank);
+
+	/**
+	 * Returns the current batch of a destination.
+	 * Must be called with lock[index] held.
+	 */
+	protected final B batch(int index)
+	{
+		return (B) buf[index];
+	}
+
+	/**
+	 * Returns the position in the current batch for the next item.
+	 * Must be called with lock[index] held.
+	 */
+	protected final int position(int index)
+	{
+		return count[index];
+	}
+
+	/**
+	 * Records an item stored at position(index) of the current batch.
+	 * Must be called with lock[index] held.
+	 * @return The batch to send if it is full or due, otherwise NULL.
+	 */
+	protected final B added(int index, long now)
+	{
+		if (count[index]++ == 0)
+			since[index] = now;
+		if (count[index] < BATCH && now - since[index] < FLUSH_NANOS)
+			return null;
+		return detach(index);
+	}
+
+	// Must be called with lock[index] held
+	private B detach(int index)
+	{
+		B b = (B) buf[index];
+		int n = count[index];
+		B next = spare.poll();
+		buf[index] = (next != null ? next : newBatch());
+		count[index] = 0;
+		return n < BATCH ? trim(b, n) : b;
+	}
+
+	/**
+	 * Sends a batch returned by added(), if any, outside of the lock.
+	 * Also sends batches of other destinations that have been waiting too long.
+	 */
+	protected final void sent(B batch, int index, long now)
+	{
+		if (batch != null)
+		{
+			credit.acquire(dst.get(index).rank);
+			track(start(batch, index), index);
+		}
+		long check = nextCheck.get();
+		if (now - check >= 0 && nextCheck.compareAndSet(check, now + FLUSH_NANOS))
+			flush(now);
+	}
+
+	private void flush(long now)
+	{
+		for (int i = 0; i < buf.length; i++)
+		{
+			B b;
+			synchronized (lock[i])
+			{
+				if (count[i] == 0 || now - since[i] < FLUSH_NANOS)
+					continue;
+				b = detach(i);
+			}
+			credit.acquire(dst.get(i).rank);
+			track(start(b, i), i);
+		}
+	}
+
+	// Sends a batch, and keeps it for reuse once sent
+	private CompletableFuture<?> start(B batch, int index)
+	{
+		return send(batch, dst.get(index).rank).thenRun(() ->
+		{
+			if (recycle(batch))
+				spare.add(batch);
+		});
+	}
+
+	// Forgets completed sends, and waits while too many are in flight
+	private void track(CompletableFuture<?> f, int index)
+	{
+		ConcurrentLinkedQueue<CompletableFuture<?>> q = inflight[index];
+		q.add(f);
+		CompletableFuture<?> head;
+		while ((head = q.peek()) != null && (head.isDone() || q.size() > INFLIGHT))
+		{
+			head.join();
+			q.remove(head);
+		}
+	}
+
+	/**
+	 * Sends all remaining batches, followed by an end-of-data marker
+	 * to each node in the specified group, and waits until all have been
+	 * sent and consumed.
+	 * Must be called once after the last item has been added.
+	 * @param grp Nodes expecting an end-of-data marker from this node.
+	 */
+	public void finish(ComputeGroup grp)
+	{
+		flush(System.nanoTime() + FLUSH_NANOS);
+		List<CompletableFuture<?>> ends = new ArrayList<>(grp.size());
+		for (ComputeNode node: grp)
+			ends.add(sendEnd(node.rank));
+		for (ConcurrentLinkedQueue<CompletableFuture<?>> q: inflight)
+			for (CompletableFuture<?> f: q)
+				f.join();
+		for (CompletableFuture<?> f: ends)
+			f.join();
+		credit.drain();
+	}
+}
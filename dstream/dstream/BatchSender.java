@@ -0,0 +1,197 @@
+package dstream;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends Java objects in batches per destination node.
+ * Each batch is encoded with a codec and sent as an array of bytes, after
+ * the sender's rank and a flags byte, or handed over as is if the
+ * communicator passes objects by reference. Encoded batches may be
+ * compressed, depending on dstream.compress (see Compressor).
+ * Batches are received by DistributedSpliterator.
+ * @see dstream.DistributedSpliterator
+ */
+class BatchSender<T> extends AbstractBatchSender<Object[]>
+{
+	private static final byte[] END = new byte[0];
+	static final int HEADER = 5; // Source rank (int), flags (byte)
+	static final byte COMPRESSED = 1;
+
+	private final Codec<? super T> codec;
+	private final Compressor compressor;
+	private volatile int lastSize = 4096; // Encoded size of the last batch, to size the next buffer
+
+	public BatchSender(ComputeGroup dst, int tag, int creditTag, Codec<? super T> codec)
+	{
+		super(dst, tag, creditTag);
+		this.codec = codec;
+		compressor = Compressor.create();
+	}
+
+	/**
+	 * Adds an item to the batch of the specified destination.
+	 * Thread-safe: can be called from a parallel localForEach.
+	 * @param e Item to send.
+	 * @param index Index of the destination node in the destination group.
+	 */
+	public void add(T e, int index)
+	{
+		long now = System.nanoTime();
+		Object[] full;
+		synchronized (lock[index])
+		{
+			batch(index)[position(index)] = e;
+			full = added(index, now);
+		}
+		sent(full, index, now);
+	}
+
+	@Override
+	protected Object[] newBatch()
+	{
+		return new Object[BATCH];
+	}
+
+	@Override
+	protected Object[] trim(Object[] batch, int n)
+	{
+		return Arrays.copyOf(batch, n);
+	}
+
+	@Override
+	protected CompletableFuture<?> send(Object[] batch, int rank)
+	{
+		if (ComputeNode.comm.passesReferences())
+		{
+			stats.sent(batch.length, 0, 0);
+			return ComputeNode.comm.isendObject(batch, rank, tag);
+		}
+		long encodeStart = System.nanoTime();
+		BufferPool.Output out = new BufferPool.Output(lastSize);
+		encode(batch, codec, 0, out);
+		CommMetrics.encoded(tag, System.nanoTime() - encodeStart);
+		byte[] buf = out.array();
+		int size = out.size();
+		int wireSize = size;
+		lastSize = size;
+		if (compressor != null && compressor.attempt(rank))
+		{
+			long start = System.nanoTime();
+			BufferPool.Output cos = new BufferPool.Output(size / 2);
+			cos.write(buf, 0, HEADER);
+			int n = Compressor.compress(buf, HEADER, size - HEADER, cos);
+			long nanos = System.nanoTime() - start;
+			boolean use = compressor.observed(rank, size - HEADER, n, nanos);
+			stats.compressed(nanos, use);
+			if (use)
+			{
+				BufferPool.release(buf);
+				buf = cos.array();
+				wireSize = cos.size();
+				buf[HEADER - 1] = COMPRESSED;
+			}
+			else
+				BufferPool.release(cos.array());
+		}
+		stats.sent(batch.length, size, wireSize);
+		byte[] sent = buf;
+		return ComputeNode.comm.isendByteArray(buf, wireSize, rank, tag).thenRun(() -> BufferPool.release(sent));
+	}
+
+	@Override
+	protected boolean recycle(Object[] batch)
+	{
+		if (ComputeNode.comm.passesReferences() || batch.length != BATCH)
+			return false;
+		Arrays.fill(batch, null);
+		return true;
+	}
+
+	@Override
+	protected CompletableFuture<?> sendEnd(int rank)
+	{
+		if (ComputeNode.comm.passesReferences())
+			return ComputeNode.comm.isendObject(null, rank, tag);
+		return ComputeNode.comm.isendByteArray(END, 0, rank, tag);
+	}
+
+	/**
+	 * Encodes a batch without compression.
+	 * @param batch Items to encode.
+	 * @param codec Codec for the items.
+	 * @param off Number of bytes to reserve at the start for another header.
+	 * @return Encoded batch, starting at off with the current node's rank.
+	 */
+	static <T> byte[] encode(Object[] batch, Codec<? super T> codec, int off)
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		encode(batch, codec, off, bos);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Encodes a batch without compression into a stream.
+	 * @see #encode(Object[], Codec, int)
+	 */
+	static <T> void encode(Object[] batch, Codec<? super T> codec, int off, OutputStream bos)
+	{
+		try
+		{
+			DataOutputStream header = new DataOutputStream(bos);
+			for (int i = 0; i < off; i++)
+				header.writeByte(0);
+			header.writeInt(ComputeNode.comm.getRank());
+			header.writeByte(0);
+			DataOutput out = codec.open(bos);
+			out.writeInt(batch.length);
+			for (Object e: batch)
+				codec.write(out, (T) e);
+			((Flushable) out).flush();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns the rank of the node that sent an encoded batch.
+	 * @param buf Received array of bytes.
+	 * @param off Start of the encoded batch.
+	 */
+	static int source(byte[] buf, int off)
+	{
+		return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16) | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+	}
+
+	/**
+	 * Decodes a batch encoded by a BatchSender.
+	 * @param buf Received array of bytes.
+	 * @param off Start of the encoded batch.
+	 * @param len End of the encoded batch.
+	 * @param codec Codec the batch was encoded with.
+	 * @return Array of decoded items.
+	 */
+	static Object[] decode(byte[] buf, int off, int len, Codec<?> codec)
+	{
+		int start = off + HEADER;
+		boolean compressed = (buf[start - 1] & COMPRESSED) != 0;
+		try (InputStream is = compressed ? Compressor.decompress(buf, start, len - start) : new ByteArrayInputStream(buf, start, len - start))
+		{
+			DataInput in = codec.open(is);
+			Object[] batch = new Object[in.readInt()];
+			for (int i = 0; i < batch.length; i++)
+				batch[i] = codec.read(in);
+			return batch;
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,212 @@
+package dstream;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Sends the local items of a broadcast operation to every node in a group.
+ * Items are batched as by BatchSender, but each batch is encoded once and
+ * travels along a route chosen per batch:
+ *   DIRECT: the origin sends the batch to every node. Used for groups of up
+ *     to DIRECT_MAX nodes (dstream.broadcast.direct, default 4).
+ *   TREE: the batch goes down a binomial tree rooted at the origin, taking
+ *     log2(P) rounds. Used for batches smaller than PIPELINE bytes
+ *     (dstream.broadcast.pipeline, default 64 KB).
+ *   RING: the batch is passed around the group, each node forwarding it to
+ *     the next one. Successive batches are pipelined, so every link carries
+ *     each batch once and large broadcasts run close to link rate.
+ * Nodes forward batches as they receive them (see BroadcastSpliterator).
+ * As the batches of an origin may take different routes, its end-of-data
+ * marker holds the number of batches sent, and goes down the tree.
+ * Credit applies to the links from the origin here, and to the links of
+ * forwarded batches in BroadcastSpliterator.
+ */
+class BroadcastSender<T>
+{
+	static final int DIRECT_MAX = Integer.getInteger("dstream.broadcast.direct", 4);
+	static final int PIPELINE = Integer.getInteger("dstream.broadcast.pipeline", 64 << 10);
+
+	// Routes
+	static final byte DIRECT = 0;
+	static final byte TREE = 1;
+	static final byte RING = 2;
+	static final byte END = 3; // End-of-data marker, follows the tree
+	static final int HEADER = 9; // Origin index (int), route (byte), number of batches (int)
+
+	private static final int[] NONE = new int[0];
+
+	private final ComputeGroup grp;
+	private final int tag;
+	private final int index;
+	private final Codec<? super T> codec;
+	private final CreditGate credit;
+	private final ShuffleStats stats;
+	private final Object lock = new Object();
+	private Object[] buf; // Guarded by lock
+	private int count;
+	private long since;
+	private final AtomicInteger batches = new AtomicInteger(0);
+	private final ConcurrentLinkedQueue<CompletableFuture<?>> inflight = new ConcurrentLinkedQueue<>();
+
+	public BroadcastSender(ComputeGroup grp, int tag, int creditTag, Codec<? super T> codec)
+	{
+		this.grp = grp;
+		this.tag = tag;
+		index = grp.indexOf(ComputeNode.getSelf());
+		this.codec = codec;
+		credit = new CreditGate(creditTag);
+		stats = ComputeNode.getSelf().getShuffleStats();
+		buf = new Object[AbstractBatchSender.BATCH];
+		count = 0;
+	}
+
+	/**
+	 * Adds an item to the current batch.
+	 * Thread-safe: can be called from a parallel localForEach.
+	 * @param e Item to send.
+	 */
+	public void add(T e)
+	{
+		long now = System.nanoTime();
+		Object[] full = null;
+		synchronized (lock)
+		{
+			if (count == 0)
+				since = now;
+			buf[count++] = e;
+			if (count == buf.length || now - since >= AbstractBatchSender.FLUSH_NANOS)
+				full = detach();
+		}
+		if (full != null)
+			send(full);
+	}
+
+	// Must be called with lock held
+	private Object[] detach()
+	{
+		Object[] b = (count < buf.length ? Arrays.copyOf(buf, count) : buf);
+		buf = new Object[buf.length];
+		count = 0;
+		return b;
+	}
+
+	private void send(Object[] batch)
+	{
+		batches.incrementAndGet();
+		if (ComputeNode.comm.passesReferences())
+		{
+			// Every node gets its own copy, as receivers clear the items they take
+			for (ComputeNode node: grp)
+			{
+				credit.acquire(node.rank);
+				stats.sent(batch.length, 0, 0);
+				track(ComputeNode.comm.isendObject(batch.clone(), node.rank, tag));
+			}
+			return;
+		}
+		long start = System.nanoTime();
+		byte[] msg = BatchSender.encode(batch, codec, HEADER);
+		CommMetrics.encoded(tag, System.nanoTime() - start);
+		byte route = (grp.size() <= DIRECT_MAX ? DIRECT : (msg.length < PIPELINE ? TREE : RING));
+		header(msg, index, route, 0);
+		send(batch.length, msg, 0);
+		for (int t: targets(route, 0, grp.size()))
+			send(batch.length, msg, t);
+	}
+
+	// Sends a batch to the node at position rel from this node
+	private void send(int n, byte[] msg, int rel)
+	{
+		int rank = grp.get((index + rel) % grp.size()).rank;
+		credit.acquire(rank);
+		stats.sent(n, msg.length, msg.length);
+		track(ComputeNode.comm.isendByteArray(msg, msg.length, rank, tag));
+	}
+
+	// Forgets completed sends, and waits while too many are in flight
+	private void track(CompletableFuture<?> f)
+	{
+		inflight.add(f);
+		CompletableFuture<?> head;
+		while ((head = inflight.peek()) != null && (head.isDone() || inflight.size() > AbstractBatchSender.INFLIGHT * grp.size()))
+		{
+			head.join();
+			inflight.remove(head);
+		}
+	}
+
+	/**
+	 * Sends the remaining items followed by the end-of-data marker, and
+	 * waits until all batches have been sent and consumed.
+	 * Must be called once after the last item has been added.
+	 */
+	public void finish()
+	{
+		Object[] rest = null;
+		synchronized (lock)
+		{
+			if (count > 0)
+				rest = detach();
+		}
+		if (rest != null)
+			send(rest);
+		if (ComputeNode.comm.passesReferences())
+			for (ComputeNode node: grp)
+				track(ComputeNode.comm.isendObject(null, node.rank, tag));
+		else
+		{
+			byte[] msg = new byte[HEADER];
+			header(msg, index, END, batches.get());
+			int[] targets = targets(END, 0, grp.size());
+			track(ComputeNode.comm.isendByteArray(msg, msg.length, ComputeNode.comm.getRank(), tag));
+			for (int t: targets)
+				track(ComputeNode.comm.isendByteArray(msg, msg.length, grp.get((index + t) % grp.size()).rank, tag));
+		}
+		for (CompletableFuture<?> f: inflight)
+			f.join();
+		credit.drain();
+	}
+
+	static void header(byte[] msg, int origin, byte route, int n)
+	{
+		ByteBuffer.wrap(msg).putInt(origin).put(route).putInt(n);
+	}
+
+	/**
+	 * Returns the next hops of a batch, as positions relative to its origin.
+	 * @param route Route of the batch.
+	 * @param rel Position of the current node relative to the origin.
+	 * @param size Group size.
+	 */
+	static int[] targets(byte route, int rel, int size)
+	{
+		switch (route)
+		{
+			case DIRECT:
+				if (rel != 0)
+					return NONE;
+				int[] all = new int[size - 1];
+				for (int i = 1; i < size; i++)
+					all[i - 1] = i;
+				return all;
+			case RING:
+				return (rel + 1 < size ? new int[] { rel + 1 } : NONE);
+			default: // Binomial tree, largest subtree first
+				int mask = 1;
+				while (mask < size && (rel & mask) == 0)
+					mask <<= 1;
+				int n = 0;
+				for (int m = mask >> 1; m > 0; m >>= 1)
+					if (rel + m < size)
+						n++;
+				int[] children = new int[n];
+				n = 0;
+				for (int m = mask >> 1; m > 0; m >>= 1)
+					if (rel + m < size)
+						children[n++] = rel + m;
+				return children;
+		}
+	}
+}
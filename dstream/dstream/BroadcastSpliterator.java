@@ -0,0 +1,153 @@
+package dstream;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Spliterator implementation for receiving data items in a broadcast operation.
+ * Batches sent by BroadcastSender are forwarded to the next nodes of their
+ * route as they are received, then decoded. The stream ends once the
+ * end-of-data markers of all nodes have arrived, along with as many batches
+ * as each marker announces.
+ * Forwarded batches are under credit on every link, as the first hop is,
+ * but on a separate tag per origin. Batches of an origin only move away
+ * from it along its routes, so no cycle of nodes can wait for each other's
+ * credit. A node grants credit for a batch once it has consumed it and
+ * obtained credit for every forward of it, without blocking its consumer.
+ * @see dstream.BroadcastSender
+ */
+class BroadcastSpliterator<T> extends DistributedSpliterator<T>
+{
+	private final ComputeGroup grp;
+	private final int index;
+	private int ended; // Nodes whose end-of-data marker has arrived
+	private int remaining; // Batches announced by these markers but not yet received
+	private final ArrayList<CompletableFuture<Void>> forwarded = new ArrayList<>();
+	private final int[] forwardTag; // Credit tags of forwarded batches, by origin index
+	private final CreditGate[] gates; // Credit for forwarding, by origin index
+	private final CreditGrant[] grants; // Credit granted to forwarding nodes, by origin index
+	private final CompletableFuture<?>[][] acquired; // Last credit acquisition, by origin index and target
+
+	public BroadcastSpliterator(ComputeGroup grp, int tag, int creditTag, int[] forwardTag, Codec<?> codec, Runnable cleanup)
+	{
+		super(tag, creditTag, grp.size(), codec, cleanup);
+		this.grp = grp;
+		this.forwardTag = forwardTag;
+		index = grp.indexOf(ComputeNode.getSelf());
+		ended = 0;
+		remaining = 0;
+		gates = new CreditGate[grp.size()];
+		grants = new CreditGrant[grp.size()];
+		acquired = new CompletableFuture<?>[grp.size()][];
+	}
+
+	@Override
+	protected Object receive()
+	{
+		if (ComputeNode.comm.passesReferences())
+			return super.receive();
+		while (ended < grp.size() || remaining > 0)
+		{
+			byte[] msg = ComputeNode.comm.recvByteArray(tag);
+			ByteBuffer h = ByteBuffer.wrap(msg);
+			int origin = h.getInt();
+			byte route = h.get();
+			int n = h.getInt();
+			if (route == BroadcastSender.END)
+			{
+				forward(msg, origin, route, -1);
+				ended++;
+				remaining += n;
+				continue;
+			}
+			remaining--;
+			forward(msg, origin, route, BatchSender.source(msg, BroadcastSender.HEADER));
+			return msg;
+		}
+		for (CompletableFuture<Void> f: forwarded)
+			f.join();
+		forwarded.clear();
+		// Grant before draining: a node may forward to this one for another origin
+		for (CreditGrant g: grants)
+			if (g != null)
+				g.finish();
+		for (CreditGate g: gates)
+			if (g != null)
+				g.drain();
+		return null;
+	}
+
+	@Override
+	protected Object[] decode(Object raw)
+	{
+		if (raw instanceof Object[])
+			return (Object[]) raw;
+		byte[] msg = (byte[]) raw;
+		long start = System.nanoTime();
+		Object[] batch = BatchSender.decode(msg, BroadcastSender.HEADER, msg.length, codec);
+		CommMetrics.decoded(tag, System.nanoTime() - start);
+		return batch;
+	}
+
+	// Sends a batch on to the next nodes of its route, once they have granted
+	// credit for it, then grants credit for it to the node it came from
+	private void forward(byte[] msg, int origin, byte route, int src)
+	{
+		int size = grp.size();
+		int rel = (index - origin + size) % size;
+		if (rel == 0)
+		{
+			// Sent by this node
+			if (route != BroadcastSender.END)
+				credit.consumed(src);
+			return;
+		}
+		int[] targets = BroadcastSender.targets(route, rel, size);
+		if (route == BroadcastSender.END)
+		{
+			// Markers are not under credit
+			for (int t: targets)
+				forwarded.add(ComputeNode.comm.isendByteArray(msg, msg.length, grp.get((origin + t) % size).rank, tag));
+			return;
+		}
+		if (targets.length > 0)
+			ByteBuffer.wrap(msg).putInt(BroadcastSender.HEADER, ComputeNode.comm.getRank());
+		if (forwarded.size() >= AbstractBatchSender.INFLIGHT * size)
+			forwarded.removeIf(CompletableFuture::isDone);
+		if (gates[origin] == null && targets.length > 0)
+		{
+			gates[origin] = new CreditGate(forwardTag[origin]);
+			acquired[origin] = new CompletableFuture<?>[size];
+		}
+		ShuffleStats stats = ComputeNode.getSelf().getShuffleStats();
+		CompletableFuture<?>[] ready = new CompletableFuture<?>[targets.length];
+		for (int i = 0; i < targets.length; i++)
+		{
+			int t = targets[i];
+			int rank = grp.get((origin + t) % size).rank;
+			CreditGate gate = gates[origin];
+			// At most one acquisition pending per link, which also keeps batches in order
+			CompletableFuture<?> prev = acquired[origin][t];
+			CompletableFuture<Void> credit = prev == null || prev.isDone() ? gate.acquireAsync(rank) : prev.thenCompose(v -> gate.acquireAsync(rank));
+			acquired[origin][t] = credit;
+			ready[i] = credit;
+			stats.sent(0, msg.length, msg.length); // Items are counted by the origin
+			forwarded.add(credit.thenCompose(v -> ComputeNode.comm.isendByteArray(msg, msg.length, rank, tag)));
+		}
+		// The first hop from the origin is under the credit of its sender
+		CreditGrant grant;
+		if (src == grp.get(origin).rank)
+			grant = credit;
+		else
+		{
+			if (grants[origin] == null)
+				grants[origin] = new CreditGrant(forwardTag[origin]);
+			grant = grants[origin];
+		}
+		if (ready.length == 0)
+			grant.consumed(src);
+		else
+			forwarded.add(CompletableFuture.allOf(ready).thenRun(() -> grant.consumed(src)));
+	}
+}
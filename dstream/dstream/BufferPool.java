@@ -0,0 +1,163 @@
+package dstream;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Pool of reusable byte arrays for messages, shared by all threads of the
+ * process.
+ * Arrays come in power-of-two size classes from 512 bytes to 16 MB, so an
+ * acquired array is usually longer than requested, and the actual length
+ * of its contents has to be passed along with it. Larger arrays are not
+ * pooled. Each size class keeps up to dstream.pool.bytes / 16 bytes of
+ * free arrays (default 64 MB in total), beyond which released arrays are
+ * left to the garbage collector.
+ * An array must not be used after it has been released.
+ */
+final class BufferPool
+{
+	private static final int MIN_SHIFT = 9;
+	private static final int MAX_SHIFT = 24;
+	private static final long BYTES = Long.getLong("dstream.pool.bytes", 64 << 20);
+
+	private static final ConcurrentLinkedQueue<byte[]>[] free = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+	private static final AtomicInteger[] count = new AtomicInteger[free.length];
+	private static final int[] limit = new int[free.length];
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+
+	static
+	{
+		for (int i = 0; i < free.length; i++)
+		{
+			free[i] = new ConcurrentLinkedQueue<>();
+			count[i] = new AtomicInteger(0);
+			limit[i] = (int) Math.max(2, BYTES / (MAX_SHIFT - MIN_SHIFT + 1) >> (MIN_SHIFT + i));
+		}
+	}
+
+	private BufferPool() { } // Do not instantiate
+
+	// Returns the size class of arrays of at least size bytes, or -1 if too large
+	private static int sizeClass(int size)
+	{
+		int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+		return (shift <= MAX_SHIFT ? shift - MIN_SHIFT : -1);
+	}
+
+	/**
+	 * Returns an array of at least the specified size, with undefined contents.
+	 */
+	static byte[] acquire(int size)
+	{
+		int c = sizeClass(size);
+		if (c < 0)
+		{
+			misses.increment();
+			return new byte[size];
+		}
+		byte[] buf = free[c].poll();
+		if (buf == null)
+		{
+			misses.increment();
+			return new byte[1 << (MIN_SHIFT + c)];
+		}
+		count[c].decrementAndGet();
+		hits.increment();
+		return buf;
+	}
+
+	/**
+	 * Hands an array back to the pool.
+	 * Arrays whose length is not a size class are ignored, so any array
+	 * received from a communicator can be released.
+	 */
+	static void release(byte[] buf)
+	{
+		int c = sizeClass(buf.length);
+		if (c < 0 || buf.length != 1 << (MIN_SHIFT + c))
+			return;
+		if (count[c].incrementAndGet() > limit[c])
+		{
+			count[c].decrementAndGet();
+			return;
+		}
+		free[c].add(buf);
+	}
+
+	/**
+	 * Returns the number of acquired arrays that were taken from the pool.
+	 */
+	static long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of acquired arrays that had to be allocated.
+	 */
+	static long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * Output stream writing into pooled arrays.
+	 * Replaces its array by a larger one from the pool when it is full.
+	 */
+	static final class Output extends OutputStream
+	{
+		private byte[] buf;
+		private int count;
+
+		Output(int size)
+		{
+			buf = acquire(size);
+			count = 0;
+		}
+
+		private void reserve(int n)
+		{
+			if (count + n <= buf.length)
+				return;
+			byte[] b = acquire(Math.max(count + n, buf.length * 2));
+			System.arraycopy(buf, 0, b, 0, count);
+			release(buf);
+			buf = b;
+		}
+
+		@Override
+		public void write(int b)
+		{
+			reserve(1);
+			buf[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			reserve(len);
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+
+		/**
+		 * Returns the array holding the data, which is owned by the caller
+		 * from then on and must be released once no longer needed.
+		 */
+		byte[] array()
+		{
+			return buf;
+		}
+
+		/**
+		 * Returns the number of bytes written.
+		 */
+		int size()
+		{
+			return count;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package dstream;
+
+import java.io.*;
+
+/**
+ * Encodes and decodes data elements sent between compute nodes.
+ * Elements are sent in batches: a batch is written to a single stream
+ * returned by open(), so per-stream costs (e.g. serialisation headers)
+ * are paid once per batch rather than once per element.
+ * A codec can be selected for each distribute operation.
+ * @see dstream.DistributedStream#distribute(ComputeGroup, Partitioner, Codec)
+ */
+public interface Codec<T>
+{
+	/**
+	 * Writes a single element.
+	 * @param out Stream returned by open(OutputStream).
+	 * @param obj Element to write. May be NULL.
+	 */
+	public void write(DataOutput out, T obj) throws IOException;
+
+	/**
+	 * Reads a single element written by write().
+	 * @param in Stream returned by open(InputStream).
+	 * @return The element read.
+	 */
+	public T read(DataInput in) throws IOException;
+
+	/**
+	 * Creates the stream that a batch of elements is written to.
+	 * The returned stream is flushed after the last element of the batch.
+	 * @param os Underlying stream.
+	 * @return Stream for writing a batch of elements.
+	 */
+	public default DataOutput open(OutputStream os) throws IOException
+	{
+		return new DataOutputStream(os);
+	}
+
+	/**
+	 * Creates the stream that a batch of elements is read from.
+	 * @param is Underlying stream.
+	 * @return Stream for reading a batch of elements.
+	 */
+	public default DataInput open(InputStream is) throws IOException
+	{
+		return new DataInputStream(is);
+	}
+
+	/**
+	 * Returns a codec using Java serialisation.
+	 * Elements must be serialisable.
+	 * @return Java serialisation codec.
+	 */
+	public static Codec<Object> java()
+	{
+		return JavaCodec.INSTANCE;
+	}
+
+	/**
+	 * Returns a new compact binary codec.
+	 * Common JDK types are written without Java serialisation and
+	 * further types can be registered with their own codecs.
+	 * @return Compact binary codec.
+	 */
+	public static CompactCodec compact()
+	{
+		return new CompactCodec();
+	}
+
+	/**
+	 * Returns the codec used when a distribute operation does not specify one.
+	 * Selected with the dstream.codec system property ("java" or "compact").
+	 * The default is Java serialisation.
+	 * @return Default codec.
+	 */
+	public static Codec<Object> getDefault()
+	{
+		return JavaCodec.DEFAULT;
+	}
+}
+
+/**
+ * Java serialisation codec.
+ * A batch is written as a single object stream, so class descriptors are
+ * sent once per batch. The streams are reused by each thread (see
+ * ObjectStreams).
+ */
+class JavaCodec implements Codec<Object>
+{
+	static final Codec<Object> INSTANCE = new JavaCodec();
+	static final Codec<Object> DEFAULT = "compact".equals(System.getProperty("dstream.codec"))
+		? new CompactCodec() : INSTANCE;
+
+	private JavaCodec() { }
+
+	@Override
+	public void write(DataOutput out, Object obj) throws IOException
+	{
+		((ObjectOutput) out).writeObject(obj);
+	}
+
+	@Override
+	public Object read(DataInput in) throws IOException
+	{
+		try
+		{
+			return ((ObjectInput) in).readObject();
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public DataOutput open(OutputStream os) throws IOException
+	{
+		return ObjectStreams.output(os);
+	}
+
+	@Override
+	public DataInput open(InputStream is) throws IOException
+	{
+		return ObjectStreams.input(is);
+	}
+}
@@ -0,0 +1,105 @@
+package dstream;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Combines the elements of equal keys before sending them, for
+ * reduceByKey(), aggregateByKey() and distributeAndCombine().
+ * Keeps a partial aggregate per key for each destination node, and sends
+ * the aggregates of a destination as entries through a BatchSender once it
+ * holds dstream.combine.keys keys (default 65536), or the aggregates of
+ * all destinations as soon as memory runs low (see MemoryMonitor).
+ * Receivers merge the aggregates arriving from all nodes, so a key may be
+ * sent more than once by the same node.
+ */
+class CombiningSender<T, K, A>
+{
+	private static final int KEYS = Integer.getInteger("dstream.combine.keys", 1 << 16);
+
+	private final BatchSender<Map.Entry<K,A>> out;
+	private final BiFunction<A, ? super T, A> accumulator;
+	private final ConcurrentHashMap<K,A>[] partial;
+	private final AtomicBoolean[] flushing; // Destinations being flushed
+	private final AtomicBoolean reclaiming = new AtomicBoolean(false);
+
+	/**
+	 * @param accumulator Function adding an element to the partial aggregate
+	 * of its key, which is NULL for the first element of the key. Runs
+	 * under the lock of the key, so can update the aggregate in place.
+	 */
+	public CombiningSender(ComputeGroup dst, int tag, int creditTag, Codec<? super Map.Entry<K,A>> codec, BiFunction<A, ? super T, A> accumulator)
+	{
+		out = new BatchSender<Map.Entry<K,A>>(dst, tag, creditTag, codec);
+		this.accumulator = accumulator;
+		partial = new ConcurrentHashMap[dst.size()];
+		flushing = new AtomicBoolean[dst.size()];
+		for (int i = 0; i < partial.length; i++)
+		{
+			partial[i] = new ConcurrentHashMap<>();
+			flushing[i] = new AtomicBoolean(false);
+		}
+	}
+
+	/**
+	 * Adds an element to the partial aggregate of its key.
+	 * Thread-safe: can be called from a parallel localForEach.
+	 * @param key Key of the element.
+	 * @param e Element to add.
+	 * @param index Index of the destination node in the destination group.
+	 */
+	public void add(K key, T e, int index)
+	{
+		ConcurrentHashMap<K,A> m = partial[index];
+		m.compute(key, (k, a) -> accumulator.apply(a, e));
+		if (MemoryMonitor.lowMemory())
+		{
+			// Only one thread empties the maps, while the others go on combining
+			if (reclaiming.compareAndSet(false, true))
+			{
+				for (int i = 0; i < partial.length; i++)
+					flush(i);
+				MemoryMonitor.reclaimMemory();
+				reclaiming.set(false);
+			}
+		}
+		else if (m.size() >= KEYS)
+			flush(index);
+	}
+
+	// Sends the partial aggregates of a destination, unless another thread already is
+	private void flush(int index)
+	{
+		if (!flushing[index].compareAndSet(false, true))
+			return;
+		try
+		{
+			ConcurrentHashMap<K,A> m = partial[index];
+			for (K key: m.keySet())
+			{
+				A value = m.remove(key);
+				if (value != null)
+					out.add(new AbstractMap.SimpleEntry<K,A>(key, value), index);
+			}
+		}
+		finally
+		{
+			flushing[index].set(false);
+		}
+	}
+
+	/**
+	 * Sends all remaining partial aggregates, then finishes the BatchSender.
+	 * Must be called once after the last element has been added.
+	 * @param grp Nodes expecting an end-of-data marker from this node.
+	 * @see dstream.AbstractBatchSender#finish(ComputeGroup)
+	 */
+	public void finish(ComputeGroup grp)
+	{
+		for (int i = 0; i < partial.length; i++)
+			flush(i);
+		out.finish(grp);
+	}
+}
@@ -0,0 +1,231 @@
+package dstream;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Executor running the communication tasks of this process: the sending
+ * side of distribute, broadcast and sorted operations, and the default
+ * non-blocking operations of communicators.
+ * Threads are kept and reused between operations, so iterative programs
+ * do not create a thread per operation. The pool is bounded by the
+ * following system properties:
+ *   dstream.comm.threads=N (most pooled threads, defaults to 64)
+ *   dstream.comm.virtual=true (virtual threads, on JDKs that support them)
+ * A task runs as long as its operation, possibly waiting on another one,
+ * so tasks are never queued: when all pooled threads are busy, a task gets
+ * a thread of its own, which is counted as an overflow. Overflow threads
+ * are not bounded, but are kept and reused like pooled ones. Tasks never
+ * run on the submitting thread, which may hold locks, or be the thread
+ * the task waits for, e.g. to grant credit.
+ */
+public class CommExecutor
+{
+	private static final int THREADS = Integer.getInteger("dstream.comm.threads", 64);
+	private static final boolean VIRTUAL = Boolean.getBoolean("dstream.comm.virtual");
+	private static final long KEEP_ALIVE = 60; // Seconds before an idle pooled thread ends
+
+	private static final CommExecutor instance = new CommExecutor();
+
+	private final ExecutorService pool;
+	private final ThreadPoolExecutor platform; // NULL with virtual threads
+	private final ThreadPoolExecutor overflow; // NULL with virtual threads
+	private final AtomicInteger threads = new AtomicInteger(0);
+	private final AtomicInteger active = new AtomicInteger(0);
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final AtomicInteger overflowThreads = new AtomicInteger(0);
+	private final LongAdder overflows = new LongAdder();
+
+	private CommExecutor()
+	{
+		ExecutorService virtual = (VIRTUAL ? virtualThreads() : null);
+		if (virtual != null)
+		{
+			pool = virtual;
+			platform = null;
+			overflow = null;
+			return;
+		}
+		overflow = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<>(), r ->
+		{
+			Thread t = new Thread(r, "CommExecutor-overflow-" + overflowThreads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		platform = new ThreadPoolExecutor(0, Math.max(1, THREADS), KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<>(), r ->
+		{
+			Thread t = new Thread(r, "CommExecutor-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, (r, executor) ->
+		{
+			overflows.increment();
+			overflow.execute(r);
+		});
+		pool = platform;
+	}
+
+	// Returns an executor starting a virtual thread per task, or NULL if the JDK has none
+	private static ExecutorService virtualThreads()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e)
+		{
+			System.err.println("CommExecutor: Virtual threads not supported, using platform threads");
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the executor of this process.
+	 * @return Communication executor.
+	 */
+	public static CommExecutor get()
+	{
+		return instance;
+	}
+
+	private Runnable counted(Runnable task)
+	{
+		submitted.increment();
+		return () ->
+		{
+			active.incrementAndGet();
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				active.decrementAndGet();
+				completed.increment();
+			}
+		};
+	}
+
+	/**
+	 * Runs a task.
+	 * @arg task Task to run, bound to its rank if needed (see Communicator.bind()).
+	 * @return Future completed when the task has finished.
+	 */
+	Future<?> submit(Runnable task)
+	{
+		return pool.submit(counted(task));
+	}
+
+	/**
+	 * Runs a task whose completion is reported by other means.
+	 * @arg task Task to run.
+	 */
+	void execute(Runnable task)
+	{
+		pool.execute(counted(task));
+	}
+
+	/**
+	 * Waits for a task started with submit() to finish.
+	 * Exits if the task failed, as an operation is then left incomplete.
+	 * @arg task Future returned by submit().
+	 */
+	static void join(Future<?> task)
+	{
+		try
+		{
+			task.get();
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	public boolean isVirtual()
+	{
+		return platform == null;
+	}
+
+	/**
+	 * @return Number of tasks submitted so far.
+	 */
+	public long getSubmitted()
+	{
+		return submitted.sum();
+	}
+
+	/**
+	 * @return Number of tasks that have finished.
+	 */
+	public long getCompleted()
+	{
+		return completed.sum();
+	}
+
+	/**
+	 * @return Number of tasks running now.
+	 */
+	public int getActive()
+	{
+		return active.get();
+	}
+
+	/**
+	 * @return Number of pooled threads now, or 0 with virtual threads.
+	 */
+	public int getPoolSize()
+	{
+		return (platform != null ? platform.getPoolSize() : 0);
+	}
+
+	/**
+	 * @return Highest number of pooled threads so far, or 0 with virtual threads.
+	 */
+	public int getLargestPoolSize()
+	{
+		return (platform != null ? platform.getLargestPoolSize() : 0);
+	}
+
+	/**
+	 * @return Number of pooled threads started so far, or 0 with virtual threads.
+	 */
+	public int getThreadsCreated()
+	{
+		return threads.get();
+	}
+
+	/**
+	 * @return Number of tasks that ran on the overflow pool because all
+	 * pooled threads were busy.
+	 */
+	public long getOverflows()
+	{
+		return overflows.sum();
+	}
+
+	/**
+	 * @return Highest number of overflow threads so far, or 0 with virtual threads.
+	 */
+	public int getLargestOverflowSize()
+	{
+		return (overflow != null ? overflow.getLargestPoolSize() : 0);
+	}
+
+	/**
+	 * @return Number of overflow threads started so far, or 0 with virtual threads.
+	 */
+	public int getOverflowThreadsCreated()
+	{
+		return overflowThreads.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "CommExecutor[" + (isVirtual() ? "virtual" : "threads=" + getPoolSize() + "/" + THREADS + " created=" + getThreadsCreated() + " largest=" + getLargestPoolSize() + " overflows=" + getOverflows() + " largestOverflow=" + getLargestOverflowSize() + " overflowCreated=" + getOverflowThreadsCreated()) + " active=" + getActive() + " submitted=" + getSubmitted() + " completed=" + getCompleted() + "]";
+	}
+}
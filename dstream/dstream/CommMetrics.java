@@ -0,0 +1,270 @@
+package dstream;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Communication metrics of a compute node, per tag and per peer.
+ * As every operation uses tags of its own, the metrics of a tag describe
+ * one operation, which is named by its label (e.g. "distribute",
+ * "distribute.credit").
+ * Recording is enabled with dstream.metrics=true. Metrics then accumulate
+ * until reset(), so a program can dump() and reset() them after each stage.
+ * Byte counts cover the messages as sent by the communicator, and are 0 for
+ * objects passed by reference.
+ * @see dstream.ComputeNode#getCommMetrics()
+ */
+public class CommMetrics
+{
+	static final boolean ENABLED = Boolean.getBoolean("dstream.metrics");
+
+	private final int size;
+	private final ConcurrentHashMap<Integer, TagMetrics> tags = new ConcurrentHashMap<>();
+
+	/**
+	 * Metrics of one tag.
+	 */
+	public static final class TagMetrics
+	{
+		private volatile String label;
+		private final AtomicLongArray sentMessages;
+		private final AtomicLongArray sentBytes;
+		private final AtomicLongArray receivedMessages;
+		private final AtomicLongArray receivedBytes;
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder encodeNanos = new LongAdder();
+		private final LongAdder decodeNanos = new LongAdder();
+		private final AtomicInteger maxQueued = new AtomicInteger(0);
+
+		TagMetrics(int size)
+		{
+			sentMessages = new AtomicLongArray(size);
+			sentBytes = new AtomicLongArray(size);
+			receivedMessages = new AtomicLongArray(size);
+			receivedBytes = new AtomicLongArray(size);
+		}
+
+		/**
+		 * Returns the name of the operation using the tag, or NULL if unknown.
+		 */
+		public String getLabel()
+		{
+			return label;
+		}
+
+		public long getMessagesSent(int peer)
+		{
+			return sentMessages.get(peer);
+		}
+
+		public long getBytesSent(int peer)
+		{
+			return sentBytes.get(peer);
+		}
+
+		public long getMessagesReceived(int peer)
+		{
+			return receivedMessages.get(peer);
+		}
+
+		public long getBytesReceived(int peer)
+		{
+			return receivedBytes.get(peer);
+		}
+
+		/**
+		 * Returns the time spent by blocking receives waiting for a message.
+		 */
+		public long getReceiveWaitNanos()
+		{
+			return waitNanos.sum();
+		}
+
+		/**
+		 * Returns the time spent encoding batches of items.
+		 */
+		public long getEncodeNanos()
+		{
+			return encodeNanos.sum();
+		}
+
+		/**
+		 * Returns the time spent decoding batches of items.
+		 */
+		public long getDecodeNanos()
+		{
+			return decodeNanos.sum();
+		}
+
+		/**
+		 * Returns the largest number of messages left waiting to be received
+		 * when a message was received.
+		 */
+		public int getMaxQueued()
+		{
+			return maxQueued.get();
+		}
+
+		private static long sum(AtomicLongArray a)
+		{
+			long n = 0;
+			for (int i = 0; i < a.length(); i++)
+				n += a.get(i);
+			return n;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%s sent=%d/%dB received=%d/%dB wait=%.1fms encode=%.1fms decode=%.1fms queued=%d",
+				(label != null ? label : "?"), sum(sentMessages), sum(sentBytes), sum(receivedMessages), sum(receivedBytes),
+				getReceiveWaitNanos() / 1e6, getEncodeNanos() / 1e6, getDecodeNanos() / 1e6, getMaxQueued());
+		}
+	}
+
+	CommMetrics(int size)
+	{
+		this.size = size;
+	}
+
+	/**
+	 * Returns the metrics of the current node, or NULL if they are not recorded.
+	 */
+	private static CommMetrics current()
+	{
+		if (!ENABLED || ComputeGroup.cluster == null)
+			return null; // Still starting up
+		return ComputeNode.getSelf().getCommMetrics();
+	}
+
+	private TagMetrics tag(int tag)
+	{
+		return tags.computeIfAbsent(tag, t -> new TagMetrics(size));
+	}
+
+	/**
+	 * Names the operation using a tag.
+	 */
+	static void label(int tag, String label)
+	{
+		CommMetrics m = current();
+		if (m != null)
+			m.tag(tag).label = label;
+	}
+
+	static void sent(int dst, int tag, long bytes)
+	{
+		CommMetrics m = current();
+		if (m == null)
+			return;
+		TagMetrics t = m.tag(tag);
+		t.sentMessages.incrementAndGet(dst);
+		t.sentBytes.addAndGet(dst, bytes);
+	}
+
+	/**
+	 * Records a received message.
+	 * @param queued Number of messages with the same tag still waiting to be received.
+	 */
+	static void received(int src, int tag, long bytes, int queued)
+	{
+		CommMetrics m = current();
+		if (m == null)
+			return;
+		TagMetrics t = m.tag(tag);
+		t.receivedMessages.incrementAndGet(src);
+		t.receivedBytes.addAndGet(src, bytes);
+		int max;
+		while (queued > (max = t.maxQueued.get()) && !t.maxQueued.compareAndSet(max, queued))
+			;
+	}
+
+	/**
+	 * Records the time a blocking receive waited for its message.
+	 */
+	static void waited(int tag, long nanos)
+	{
+		CommMetrics m = current();
+		if (m != null)
+			m.tag(tag).waitNanos.add(nanos);
+	}
+
+	static void encoded(int tag, long nanos)
+	{
+		CommMetrics m = current();
+		if (m != null)
+			m.tag(tag).encodeNanos.add(nanos);
+	}
+
+	static void decoded(int tag, long nanos)
+	{
+		CommMetrics m = current();
+		if (m != null)
+			m.tag(tag).decodeNanos.add(nanos);
+	}
+
+	/**
+	 * Returns the metrics of a tag.
+	 * @return Metrics, or NULL if nothing was recorded for the tag.
+	 */
+	public TagMetrics get(int tag)
+	{
+		return tags.get(tag);
+	}
+
+	/**
+	 * Returns the metrics of all tags used since the last reset, by tag.
+	 */
+	public Map<Integer, TagMetrics> getTags()
+	{
+		return new TreeMap<>(tags);
+	}
+
+	/**
+	 * Forgets all metrics recorded so far.
+	 */
+	public void reset()
+	{
+		tags.clear();
+	}
+
+	/**
+	 * Returns the number of message buffers of the process that were taken
+	 * from its buffer pool instead of being allocated. Recorded even
+	 * without dstream.metrics.
+	 */
+	public static long getPoolHits()
+	{
+		return BufferPool.getHits();
+	}
+
+	/**
+	 * Returns the number of message buffers of the process that had to be
+	 * allocated, as the buffer pool had none free.
+	 */
+	public static long getPoolMisses()
+	{
+		return BufferPool.getMisses();
+	}
+
+	/**
+	 * Prints the metrics of every tag, one per line, with the peers that
+	 * exchanged messages on it.
+	 * @param out Stream to print to.
+	 */
+	public void dump(PrintStream out)
+	{
+		String node = ComputeNode.getSelf().getName();
+		for (Map.Entry<Integer, TagMetrics> e: getTags().entrySet())
+		{
+			TagMetrics t = e.getValue();
+			StringBuilder peers = new StringBuilder();
+			for (int i = 0; i < size; i++)
+				if (t.getMessagesSent(i) > 0 || t.getMessagesReceived(i) > 0)
+					peers.append(' ').append(i).append(":").append(t.getMessagesSent(i)).append('/').append(t.getMessagesReceived(i));
+			out.println(node + " tag " + e.getKey() + ": " + t + " peers(sent/received)" + peers);
+		}
+	}
+}
@@ -1,8 +1,18 @@
 package dstream;
 
+import java.nio.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
 /**
  * Encapsulates the transport layer.
  * Contains methods for sending and receiving messages on the current compute node.
+ * Every blocking operation also has a non-blocking variant (isend*, irecv*)
+ * that returns a CompletableFuture, so that a few threads can keep many
+ * transfers in flight. Like MPI non-blocking operations, the buffer of an
+ * isend must not be modified until the future completes, and messages
+ * between two nodes with the same tag are matched in the order in which
+ * the operations were started.
  */
 public abstract class Communicator
 {
@@ -19,6 +29,67 @@ public abstract class Communicator
 	 */
 	abstract public void cleanup();
 
+	/**
+	 * Runs the program of every rank hosted by this process.
+	 * Called once, between init() and cleanup(). The default runs the
+	 * program on the calling thread, as a process hosts a single rank.
+	 * @arg program Program to run on each rank.
+	 */
+	public void execute(Runnable program)
+	{
+		program.run();
+	}
+
+	/**
+	 * Binds a task to the current rank, for running it on another thread.
+	 * Operators that start their own threads must run them through this
+	 * method, so that the task and any parallel stream it evaluates keep
+	 * executing on behalf of the rank that started it.
+	 * @arg task Task to bind.
+	 * @return Task to run on the new thread.
+	 */
+	public Runnable bind(Runnable task)
+	{
+		return task;
+	}
+
+	/**
+	 * Returns an executor running tasks on the CommExecutor on behalf of the
+	 * current rank, as bind() does. Actions chained to the futures of
+	 * non-blocking operations run on it with the *Async methods of
+	 * CompletableFuture, instead of on the thread completing the future.
+	 * @return Executor bound to the current rank.
+	 */
+	public Executor executor()
+	{
+		return CommExecutor.get()::execute;
+	}
+
+	/**
+	 * Decodes a received message on the calling thread if it has arrived,
+	 * or else on executor() once it arrives, so that no decoding runs on the
+	 * thread delivering messages. Used by the irecv* methods of communicators
+	 * that complete receives when their message is delivered.
+	 * @arg f Future completed with the message.
+	 * @arg fn Function decoding the message.
+	 * @return Future completed with the decoded message.
+	 */
+	protected <M, U> CompletableFuture<U> decode(CompletableFuture<M> f, Function<M, U> fn)
+	{
+		return (f.isDone() ? f.thenApply(fn) : f.thenApplyAsync(fn, executor()));
+	}
+
+	/**
+	 * Tells whether sent objects are handed over by reference.
+	 * If so, senders can pass batches of objects with sendObject() instead
+	 * of encoding them, and must not modify an object after sending it.
+	 * @return True for communicators within a single process.
+	 */
+	public boolean passesReferences()
+	{
+		return false;
+	}
+
 	/**
 	 * Obtains the current node's rank (ID).
 	 * @return Current node's rank.
@@ -54,6 +125,14 @@ public abstract class Communicator
 	 */
 	abstract public int recvObject(Object[] obj, int tag);
 
+	/**
+	 * Receives a Java object from the specified node with the specified tag.
+	 * @arg src Source node's rank.
+	 * @arg tag Tag value.
+	 * @return The received object.
+	 */
+	abstract public Object recvObject(int src, int tag);
+
 	/**
 	 * Sends an integer to the referenced node with the specified tag.
 	 * @arg n Integer to send.
@@ -69,4 +148,348 @@ public abstract class Communicator
 	 * @return The received object.
 	 */
 	abstract public int recvInt(int src, int tag);
+
+	/**
+	 * Sends an array of bytes to the specified node with the specified tag.
+	 * An array of length zero can be sent, e.g. as an end-of-data marker.
+	 * @arg buf Array containing the bytes to send.
+	 * @arg count Number of bytes to send from the start of the array.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 */
+	abstract public void sendByteArray(byte[] buf, int count, int dst, int tag);
+
+	/**
+	 * Receives an array of bytes with the specified tag.
+	 * @arg tag Tag value.
+	 * @return The received array, with the length of the array that was sent.
+	 */
+	abstract public byte[] recvByteArray(int tag);
+
+	/**
+	 * Receives an array of bytes with the specified tag, possibly in an
+	 * array from the BufferPool that is longer than the message.
+	 * Used on the receiving path of shuffles, so that communicators reading
+	 * into pooled arrays do not have to copy each message. The default
+	 * wraps the array returned by recvByteArray().
+	 * @arg tag Tag value.
+	 * @return Buffer wrapping the array, with the message from position 0
+	 * up to its limit. The array can be handed back with
+	 * BufferPool.release() once the message has been read.
+	 */
+	public ByteBuffer recvBuffer(int tag)
+	{
+		return ByteBuffer.wrap(recvByteArray(tag));
+	}
+
+	/**
+	 * Sends an array of integers to the specified node with the specified tag.
+	 * An array of length zero can be sent, e.g. as an end-of-data marker.
+	 * @arg buf Array containing the integers to send.
+	 * @arg count Number of integers to send from the start of the array.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 */
+	abstract public void sendIntArray(int[] buf, int count, int dst, int tag);
+
+	/**
+	 * Receives an array of integers with the specified tag.
+	 * @arg tag Tag value.
+	 * @return The received array, with the length of the array that was sent.
+	 */
+	abstract public int[] recvIntArray(int tag);
+
+	/**
+	 * Sends an array of long integers to the specified node with the specified tag.
+	 * An array of length zero can be sent, e.g. as an end-of-data marker.
+	 * @arg buf Array containing the long integers to send.
+	 * @arg count Number of long integers to send from the start of the array.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 */
+	abstract public void sendLongArray(long[] buf, int count, int dst, int tag);
+
+	/**
+	 * Receives an array of long integers with the specified tag.
+	 * @arg tag Tag value.
+	 * @return The received array, with the length of the array that was sent.
+	 */
+	abstract public long[] recvLongArray(int tag);
+
+	/**
+	 * Receives an array of long integers from the specified node with the specified tag.
+	 * @arg src Source node's rank.
+	 * @arg tag Tag value.
+	 * @return The received array, with the length of the array that was sent.
+	 */
+	abstract public long[] recvLongArray(int src, int tag);
+
+	/**
+	 * Sends an array of doubles to the specified node with the specified tag.
+	 * An array of length zero can be sent, e.g. as an end-of-data marker.
+	 * @arg buf Array containing the doubles to send.
+	 * @arg count Number of doubles to send from the start of the array.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 */
+	abstract public void sendDoubleArray(double[] buf, int count, int dst, int tag);
+
+	/**
+	 * Receives an array of doubles with the specified tag.
+	 * @arg tag Tag value.
+	 * @return The received array, with the length of the array that was sent.
+	 */
+	abstract public double[] recvDoubleArray(int tag);
+
+	/**
+	 * Receives an array of doubles from the specified node with the specified tag.
+	 * @arg src Source node's rank.
+	 * @arg tag Tag value.
+	 * @return The received array, with the length of the array that was sent.
+	 */
+	abstract public double[] recvDoubleArray(int src, int tag);
+
+	/**
+	 * Combines arrays of long integers over a group of nodes, and returns the result on every node.
+	 * Arrays are reduced up a binomial tree rooted at the first node, then
+	 * the result is sent down the same tree, as by DistributeOps.reduce(),
+	 * but without serialising objects. Each node combines its own array
+	 * with those of higher indices, so the result is the same as combining
+	 * in group order. Transports with a native allreduce may override this.
+	 * @arg buf Array of the current node. May be modified or returned.
+	 * @arg combiner Associative function combining two arrays, which may
+	 * modify and return the first one.
+	 * @arg ranks Ranks of the nodes in the group, in group order.
+	 * @arg tag Tag value.
+	 * @return The combined array.
+	 */
+	public long[] allreduceLongArray(long[] buf, BinaryOperator<long[]> combiner, int[] ranks, int tag)
+	{
+		int index = indexOf(ranks, getRank());
+		long[] result = buf;
+		int mask = 1;
+		for (; mask < ranks.length && (index & mask) == 0; mask <<= 1)
+			if (index + mask < ranks.length)
+				result = combiner.apply(result, recvLongArray(ranks[index + mask], tag));
+		if (index != 0)
+		{
+			sendLongArray(result, result.length, ranks[index - mask], tag);
+			result = recvLongArray(ranks[index - mask], tag);
+		}
+		for (mask >>= 1; mask > 0; mask >>= 1)
+			if (index + mask < ranks.length)
+				sendLongArray(result, result.length, ranks[index + mask], tag);
+		return result;
+	}
+
+	/**
+	 * Combines arrays of doubles over a group of nodes, and returns the result on every node.
+	 * @see #allreduceLongArray(long[], BinaryOperator, int[], int)
+	 */
+	public double[] allreduceDoubleArray(double[] buf, BinaryOperator<double[]> combiner, int[] ranks, int tag)
+	{
+		int index = indexOf(ranks, getRank());
+		double[] result = buf;
+		int mask = 1;
+		for (; mask < ranks.length && (index & mask) == 0; mask <<= 1)
+			if (index + mask < ranks.length)
+				result = combiner.apply(result, recvDoubleArray(ranks[index + mask], tag));
+		if (index != 0)
+		{
+			sendDoubleArray(result, result.length, ranks[index - mask], tag);
+			result = recvDoubleArray(ranks[index - mask], tag);
+		}
+		for (mask >>= 1; mask > 0; mask >>= 1)
+			if (index + mask < ranks.length)
+				sendDoubleArray(result, result.length, ranks[index + mask], tag);
+		return result;
+	}
+
+	private static int indexOf(int[] ranks, int rank)
+	{
+		for (int i = 0; i < ranks.length; i++)
+			if (ranks[i] == rank)
+				return i;
+		throw new RuntimeException("Node not in group");
+	}
+
+	// Last operation started per (rank, destination) and per (rank, tag)
+	private final ConcurrentHashMap<Long, CompletableFuture<?>> sends = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Long, CompletableFuture<?>> recvs = new ConcurrentHashMap<>();
+
+	/**
+	 * Runs a blocking operation on the CommExecutor, once the previous
+	 * operation started with the same key has completed.
+	 * Used by the default non-blocking operations, which keep the order of
+	 * sends per destination and of receives per tag.
+	 */
+	private <U> CompletableFuture<U> async(ConcurrentHashMap<Long, CompletableFuture<?>> chains, int key, Supplier<U> op)
+	{
+		CompletableFuture<U> f = new CompletableFuture<>();
+		Runnable task = bind(() ->
+		{
+			try
+			{
+				f.complete(op.get());
+			}
+			catch (RuntimeException e)
+			{
+				f.completeExceptionally(e);
+			}
+		});
+		long k = ((long) getRank() << 32) | (key & 0xFFFFFFFFL);
+		// Start the task outside the map, which must not wait for the executor
+		CompletableFuture<?> prev = chains.put(k, f);
+		if (prev == null)
+			CommExecutor.get().execute(task);
+		else
+			prev.whenComplete((v, e) -> CommExecutor.get().execute(task));
+		f.whenComplete((v, e) -> chains.remove(k, f));
+		return f;
+	}
+
+	/**
+	 * Starts sending a Java object to the specified node with the specified tag.
+	 * @arg obj Object to send.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 * @return Future completed when the object has been sent.
+	 */
+	public CompletableFuture<Void> isendObject(Object obj, int dst, int tag)
+	{
+		return async(sends, dst, () ->
+		{
+			sendObject(obj, dst, tag);
+			return null;
+		});
+	}
+
+	/**
+	 * Starts receiving a Java object with the specified tag.
+	 * @arg tag Tag value.
+	 * @return Future completed with the received object.
+	 */
+	public CompletableFuture<Object> irecvObject(int tag)
+	{
+		return async(recvs, tag, () -> recvObject(tag));
+	}
+
+	/**
+	 * Starts receiving an integer from the specified node with the specified tag.
+	 * @arg src Source node's rank.
+	 * @arg tag Tag value.
+	 * @return Future completed with the received integer.
+	 */
+	public CompletableFuture<Integer> irecvInt(int src, int tag)
+	{
+		return async(recvs, tag, () -> recvInt(src, tag));
+	}
+
+	/**
+	 * Starts sending an array of bytes to the specified node with the specified tag.
+	 * @arg buf Array containing the bytes to send.
+	 * @arg count Number of bytes to send from the start of the array.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 * @return Future completed when the array has been sent.
+	 */
+	public CompletableFuture<Void> isendByteArray(byte[] buf, int count, int dst, int tag)
+	{
+		return async(sends, dst, () ->
+		{
+			sendByteArray(buf, count, dst, tag);
+			return null;
+		});
+	}
+
+	/**
+	 * Starts receiving an array of bytes with the specified tag.
+	 * @arg tag Tag value.
+	 * @return Future completed with the received array.
+	 */
+	public CompletableFuture<byte[]> irecvByteArray(int tag)
+	{
+		return async(recvs, tag, () -> recvByteArray(tag));
+	}
+
+	/**
+	 * Starts sending an array of integers to the specified node with the specified tag.
+	 * @arg buf Array containing the integers to send.
+	 * @arg count Number of integers to send from the start of the array.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 * @return Future completed when the array has been sent.
+	 */
+	public CompletableFuture<Void> isendIntArray(int[] buf, int count, int dst, int tag)
+	{
+		return async(sends, dst, () ->
+		{
+			sendIntArray(buf, count, dst, tag);
+			return null;
+		});
+	}
+
+	/**
+	 * Starts receiving an array of integers with the specified tag.
+	 * @arg tag Tag value.
+	 * @return Future completed with the received array.
+	 */
+	public CompletableFuture<int[]> irecvIntArray(int tag)
+	{
+		return async(recvs, tag, () -> recvIntArray(tag));
+	}
+
+	/**
+	 * Starts sending an array of long integers to the specified node with the specified tag.
+	 * @arg buf Array containing the long integers to send.
+	 * @arg count Number of long integers to send from the start of the array.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 * @return Future completed when the array has been sent.
+	 */
+	public CompletableFuture<Void> isendLongArray(long[] buf, int count, int dst, int tag)
+	{
+		return async(sends, dst, () ->
+		{
+			sendLongArray(buf, count, dst, tag);
+			return null;
+		});
+	}
+
+	/**
+	 * Starts receiving an array of long integers with the specified tag.
+	 * @arg tag Tag value.
+	 * @return Future completed with the received array.
+	 */
+	public CompletableFuture<long[]> irecvLongArray(int tag)
+	{
+		return async(recvs, tag, () -> recvLongArray(tag));
+	}
+
+	/**
+	 * Starts sending an array of doubles to the specified node with the specified tag.
+	 * @arg buf Array containing the doubles to send.
+	 * @arg count Number of doubles to send from the start of the array.
+	 * @arg dst Destination node's rank.
+	 * @arg tag Tag value.
+	 * @return Future completed when the array has been sent.
+	 */
+	public CompletableFuture<Void> isendDoubleArray(double[] buf, int count, int dst, int tag)
+	{
+		return async(sends, dst, () ->
+		{
+			sendDoubleArray(buf, count, dst, tag);
+			return null;
+		});
+	}
+
+	/**
+	 * Starts receiving an array of doubles with the specified tag.
+	 * @arg tag Tag value.
+	 * @return Future completed with the received array.
+	 */
+	public CompletableFuture<double[]> irecvDoubleArray(int tag)
+	{
+		return async(recvs, tag, () -> recvDoubleArray(tag));
+	}
 }
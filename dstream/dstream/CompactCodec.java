@@ -0,0 +1,203 @@
+package dstream;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Compact binary codec.
+ * Strings, boxed primitives and map entries are written with a one-byte
+ * type marker instead of Java serialisation.
+ * Other types can be registered with a codec of their own; anything else
+ * falls back to Java serialisation, one element at a time.
+ * Registration assigns type numbers in order, so every node must register
+ * the same types in the same order before the codec is used.
+ */
+public class CompactCodec implements Codec<Object>
+{
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte LONG_STRING = 2;
+	private static final byte INTEGER = 3;
+	private static final byte LONG = 4;
+	private static final byte DOUBLE = 5;
+	private static final byte BOOLEAN = 6;
+	private static final byte ENTRY = 7;
+	private static final byte IMMUTABLE_ENTRY = 8;
+	private static final byte REGISTERED = 9;
+	private static final byte SERIALIZED = 10;
+
+	private static final int MAX_UTF = 65535 / 3; // Characters that always fit in writeUTF
+
+	private final Map<Class<?>, Integer> ids;
+	private final List<Codec<Object>> codecs;
+
+	CompactCodec()
+	{
+		ids = new HashMap<>();
+		codecs = new ArrayList<>();
+	}
+
+	/**
+	 * Registers a codec for elements of exactly the specified class.
+	 * @param c Element class.
+	 * @param codec Codec used for elements of the class. Its open()
+	 * methods are not used.
+	 * @return This codec, for chaining.
+	 */
+	public synchronized <T> CompactCodec register(Class<T> c, Codec<? super T> codec)
+	{
+		if (ids.containsKey(c))
+			throw new IllegalArgumentException(c.getName() + " already registered");
+		ids.put(c, codecs.size());
+		codecs.add((Codec<Object>) codec);
+		return this;
+	}
+
+	@Override
+	public void write(DataOutput out, Object obj) throws IOException
+	{
+		if (obj == null)
+		{
+			out.writeByte(NULL);
+			return;
+		}
+		Class<?> c = obj.getClass();
+		Integer id = ids.get(c);
+		if (id != null)
+		{
+			out.writeByte(REGISTERED);
+			writeVarInt(out, id);
+			codecs.get(id).write(out, obj);
+		}
+		else if (c == String.class)
+		{
+			String s = (String) obj;
+			if (s.length() <= MAX_UTF)
+			{
+				out.writeByte(STRING);
+				out.writeUTF(s);
+			}
+			else
+			{
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				out.writeByte(LONG_STRING);
+				writeVarInt(out, b.length);
+				out.write(b);
+			}
+		}
+		else if (c == Integer.class)
+		{
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) obj);
+		}
+		else if (c == Long.class)
+		{
+			out.writeByte(LONG);
+			out.writeLong((Long) obj);
+		}
+		else if (c == Double.class)
+		{
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) obj);
+		}
+		else if (c == Boolean.class)
+		{
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) obj);
+		}
+		else if (c == AbstractMap.SimpleEntry.class || c == AbstractMap.SimpleImmutableEntry.class)
+		{
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) obj;
+			out.writeByte(c == AbstractMap.SimpleEntry.class ? ENTRY : IMMUTABLE_ENTRY);
+			write(out, e.getKey());
+			write(out, e.getValue());
+		}
+		else
+		{
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream os = new ObjectOutputStream(bos);
+			os.writeObject(obj);
+			os.close();
+			out.writeByte(SERIALIZED);
+			writeVarInt(out, bos.size());
+			out.write(bos.toByteArray());
+		}
+	}
+
+	@Override
+	public Object read(DataInput in) throws IOException
+	{
+		byte type = in.readByte();
+		switch (type)
+		{
+			case NULL:
+				return null;
+			case REGISTERED:
+				return codecs.get(readVarInt(in)).read(in);
+			case STRING:
+				return in.readUTF();
+			case LONG_STRING:
+			{
+				byte[] b = new byte[readVarInt(in)];
+				in.readFully(b);
+				return new String(b, StandardCharsets.UTF_8);
+			}
+			case INTEGER:
+				return in.readInt();
+			case LONG:
+				return in.readLong();
+			case DOUBLE:
+				return in.readDouble();
+			case BOOLEAN:
+				return in.readBoolean();
+			case ENTRY:
+				return new AbstractMap.SimpleEntry<>(read(in), read(in));
+			case IMMUTABLE_ENTRY:
+				return new AbstractMap.SimpleImmutableEntry<>(read(in), read(in));
+			case SERIALIZED:
+			{
+				byte[] b = new byte[readVarInt(in)];
+				in.readFully(b);
+				try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(b)))
+				{
+					return is.readObject();
+				}
+				catch (ClassNotFoundException e)
+				{
+					throw new IOException(e);
+				}
+			}
+			default:
+				throw new StreamCorruptedException("Unknown type " + type);
+		}
+	}
+
+	/**
+	 * Writes a non-negative integer using 7 bits per byte.
+	 */
+	public static void writeVarInt(DataOutput out, int n) throws IOException
+	{
+		while ((n & ~0x7f) != 0)
+		{
+			out.writeByte((n & 0x7f) | 0x80);
+			n >>>= 7;
+		}
+		out.writeByte(n);
+	}
+
+	/**
+	 * Reads an integer written by writeVarInt().
+	 */
+	public static int readVarInt(DataInput in) throws IOException
+	{
+		int n = 0;
+		for (int shift = 0; ; shift += 7)
+		{
+			int b = in.readByte();
+			n |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return n;
+		}
+	}
+}
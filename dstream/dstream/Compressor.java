@@ -0,0 +1,113 @@
+package dstream;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Compresses encoded shuffle batches with Deflater, deciding per link
+ * whether compression pays off.
+ * Selected by the dstream.compress system property:
+ *   off (default): batches are never compressed
+ *   on: every batch is compressed, unless that makes it larger
+ *   auto: a link compresses while the time saved on the wire exceeds the
+ *     time spent compressing. While a link does not compress, one batch in
+ *     PROBE is compressed anyway to keep measuring.
+ * The wire time is estimated from dstream.compress.bandwidth, the link
+ * bandwidth in MB/s (default 100, i.e. 1 Gbit/s Ethernet).
+ */
+class Compressor
+{
+	static final String MODE = System.getProperty("dstream.compress", "off");
+	private static final double BYTES_PER_NANO = Double.parseDouble(System.getProperty("dstream.compress.bandwidth", "100")) * 1e-3;
+	private static final int PROBE = 16;
+	private static final double ALPHA = 0.25; // Weight of the latest measurement
+
+	private static final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+	private final boolean auto;
+	private final boolean[] enabled; // By rank
+	private final int[] count;
+	private final double[] gain; // Average time saved per batch (ns), may be negative
+
+	/**
+	 * @return Compressor for the configured mode, or NULL if compression is off.
+	 */
+	static Compressor create()
+	{
+		switch (MODE)
+		{
+			case "off":
+				return null;
+			case "on":
+				return new Compressor(false);
+			case "auto":
+				return new Compressor(true);
+			default:
+				throw new IllegalArgumentException("Compressor: Unknown mode " + MODE);
+		}
+	}
+
+	private Compressor(boolean auto)
+	{
+		this.auto = auto;
+		int size = ComputeNode.comm.getSize();
+		enabled = new boolean[size];
+		count = new int[size];
+		gain = new double[size];
+		for (int i = 0; i < size; i++)
+			enabled[i] = !auto;
+	}
+
+	/**
+	 * Tells whether to try compressing the next batch to the specified node.
+	 */
+	synchronized boolean attempt(int rank)
+	{
+		return enabled[rank] || ++count[rank] % PROBE == 0;
+	}
+
+	/**
+	 * Records the outcome of compressing a batch to the specified node.
+	 * @return True if the compressed batch should be sent.
+	 */
+	synchronized boolean observed(int rank, int size, int compressedSize, long nanos)
+	{
+		if (auto)
+		{
+			double g = (size - compressedSize) / BYTES_PER_NANO - nanos;
+			gain[rank] = ALPHA * g + (1 - ALPHA) * gain[rank];
+			enabled[rank] = gain[rank] > 0;
+		}
+		return compressedSize < size;
+	}
+
+	/**
+	 * Writes the compressed form of part of an array to a stream.
+	 * @return Number of bytes written.
+	 */
+	static int compress(byte[] buf, int off, int len, BufferPool.Output out)
+	{
+		Deflater d = deflater.get();
+		d.reset();
+		d.setInput(buf, off, len);
+		d.finish();
+		byte[] tmp = BufferPool.acquire(Math.min(len + 64, 64 << 10));
+		int total = 0;
+		while (!d.finished())
+		{
+			int n = d.deflate(tmp);
+			out.write(tmp, 0, n);
+			total += n;
+		}
+		BufferPool.release(tmp);
+		return total;
+	}
+
+	/**
+	 * Returns a stream decompressing part of an array.
+	 */
+	static InputStream decompress(byte[] buf, int off, int len)
+	{
+		return new InflaterInputStream(new ByteArrayInputStream(buf, off, len));
+	}
+}
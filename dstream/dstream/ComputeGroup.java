@@ -100,4 +100,50 @@ public class ComputeGroup extends ArrayList<ComputeNode>
 	{
 		throw new UnsupportedOperationException();
 	}
+
+	/**
+	 * Combines arrays of values of all nodes in the group element by
+	 * element, and returns the result on every node. Several statistics
+	 * are so reduced in a single round of messages, e.g.
+	 * allreduce(new long[] { count, sum, min, max }, Long::sum, Long::sum, Math::min, Math::max).
+	 * Values are sent as arrays of primitives, without serialisation.
+	 * Must be called by every node of the group, with as many values.
+	 * @param values Values of the current node.
+	 * @param ops Associative function combining each element, or a single
+	 * function for all elements.
+	 * @return Combined values.
+	 * @see dstream.Communicator#allreduceLongArray(long[], BinaryOperator, int[], int)
+	 */
+	public long[] allreduce(long[] values, LongBinaryOperator... ops)
+	{
+		if (ops.length != 1 && ops.length != values.length)
+			throw new IllegalArgumentException("Expected 1 or " + values.length + " operators, not " + ops.length);
+		return DistributeOps.allreduce(values.clone(), this, (a, b) ->
+		{
+			for (int i = 0; i < a.length; i++)
+				a[i] = ops[ops.length == 1 ? 0 : i].applyAsLong(a[i], b[i]);
+			return a;
+		});
+	}
+
+	/**
+	 * Combines arrays of values of all nodes in the group element by
+	 * element, and returns the result on every node.
+	 * @param values Values of the current node.
+	 * @param ops Associative function combining each element, or a single
+	 * function for all elements.
+	 * @return Combined values.
+	 * @see #allreduce(long[], LongBinaryOperator...)
+	 */
+	public double[] allreduce(double[] values, DoubleBinaryOperator... ops)
+	{
+		if (ops.length != 1 && ops.length != values.length)
+			throw new IllegalArgumentException("Expected 1 or " + values.length + " operators, not " + ops.length);
+		return DistributeOps.allreduce(values.clone(), this, (a, b) ->
+		{
+			for (int i = 0; i < a.length; i++)
+				a[i] = ops[ops.length == 1 ? 0 : i].applyAsDouble(a[i], b[i]);
+			return a;
+		});
+	}
 }
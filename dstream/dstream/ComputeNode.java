@@ -19,13 +19,14 @@ import java.util.concurrent.locks.*;
 public class ComputeNode
 {
 	static Communicator comm;
-	static ComputeNode thisNode;
 
 	int rank;
 	final boolean isMaster;
-	private final String hostname;
+	private final NodeInfo info;
 	private final String name;
 	private Map<String,ComputeNode> nodes;
+	private final ShuffleStats shuffleStats = new ShuffleStats();
+	private final CommMetrics commMetrics;
 
 	/**
 	 * Fix for common ForkJoinPool not having asyncMode set to true
@@ -63,36 +64,42 @@ public class ComputeNode
 			System.err.println("ComputeNode: No class with main() method specified");
 			System.exit(1);
 		}
+		comm = createCommunicator();
+		if (!(comm instanceof LocalCommunicator))
+			fixCommonPool(); // Each local rank has its own pool
+		String[] args = comm.init(argv);
+		comm.execute(() -> run(args));
+		comm.cleanup();
+	}
+
+	/**
+	 * Runs the program on the current rank.
+	 * Builds the cluster from the descriptions of all ranks, then calls main().
+	 * @param argv Program arguments, with the class to run first.
+	 */
+	private static void run(String[] argv)
+	{
 		try
 		{
-			fixCommonPool();
-			comm = new MPJCommunicator();
-			argv = comm.init(argv);
-			int rank = comm.getRank();
 			int size = comm.getSize();
-			// Initialise cluster and broadcast hostnames
-			ComputeGroup.cluster = new ComputeGroup();
-			String[] hostnames = new String[size];
-			hostnames[rank] = InetAddress.getLocalHost().getHostName().split("\\.")[0];
-			for (int i = 0; i < size; i++)
-				if (i != rank)
-					comm.sendObject(hostnames[rank], i, 0);
-			String[] hostbuf = new String[1];
-			for (int i = 1; i < size; i++)
+			Object[] infos = allgather(NodeInfo.local(), 0);
+			// Initialise cluster, shared by all ranks of this process
+			synchronized (ComputeGroup.class)
 			{
-				int src = comm.recvObject(hostbuf, 0);
-				hostnames[src] = hostbuf[0];
+				if (ComputeGroup.cluster == null)
+				{
+					ComputeGroup cluster = new ComputeGroup();
+					for (int i = 0; i < size; i++)
+						cluster.add(new ComputeNode(i, size, (NodeInfo) infos[i]));
+					ComputeGroup.cluster = cluster;
+				}
 			}
-			for (int i = 0; i < size; i++)
-				ComputeGroup.cluster.add(new ComputeNode(i, size, i == rank, hostnames[i]));
-			hostnames = null;
-			hostbuf = null;
+			infos = null;
 			// Execute main()
 			Class c = Class.forName(argv[0]);
 			Method m = c.getMethod("main", String[].class);
 			String[] newArgv = java.util.Arrays.copyOfRange(argv, 1, argv.length);
 			m.invoke(null, (Object) newArgv);
-			comm.cleanup();
 		}
 		catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException | UnknownHostException e)
 		{
@@ -101,16 +108,67 @@ public class ComputeNode
 		}
 	}
 
-	private ComputeNode(int rank, int size, boolean self, String hostname)
+	/**
+	 * Gathers one object from every rank on all ranks, with Bruck's algorithm.
+	 * In round k each rank sends the objects it has so far to the rank 2^k
+	 * below it, and receives as many from the rank 2^k above it, so the
+	 * exchange takes log2(P) rounds instead of P - 1.
+	 * @param obj Object of the current rank.
+	 * @param tag Tag value.
+	 * @return Objects of all ranks, indexed by rank.
+	 */
+	private static Object[] allgather(Object obj, int tag)
+	{
+		int rank = comm.getRank();
+		int size = comm.getSize();
+		// Objects of ranks rank, rank + 1, ... in order
+		ArrayList<Object> have = new ArrayList<>(size);
+		have.add(obj);
+		for (int dist = 1; dist < size; dist <<= 1)
+		{
+			int n = Math.min(dist, size - dist);
+			CompletableFuture<Void> sent = comm.isendObject(new ArrayList<>(have.subList(0, n)), (rank - dist + size) % size, tag);
+			have.addAll((List<?>) comm.recvObject((rank + dist) % size, tag));
+			sent.join();
+		}
+		Object[] all = new Object[size];
+		for (int i = 0; i < size; i++)
+			all[(rank + i) % size] = have.get(i);
+		return all;
+	}
+
+	/**
+	 * Creates the communicator selected by the dstream.comm system property:
+	 * "mpj" (default) for MPJ Express, "socket" for TCP sockets, or "local"
+	 * for several ranks within this process.
+	 * @see dstream.SocketCommunicator
+	 * @see dstream.LocalCommunicator
+	 */
+	private static Communicator createCommunicator()
+	{
+		String name = System.getProperty("dstream.comm", "mpj");
+		switch (name)
+		{
+			case "mpj":
+				return new MPJCommunicator();
+			case "socket":
+				return new SocketCommunicator();
+			case "local":
+				return new LocalCommunicator();
+			default:
+				throw new IllegalArgumentException("ComputeNode: Unknown communicator " + name);
+		}
+	}
+
+	private ComputeNode(int rank, int size, NodeInfo info)
 	{
 		this.rank = rank;
 		isMaster = (rank == 0);
-		this.hostname = hostname;
+		this.info = info;
+		commMetrics = new CommMetrics(size);
 		name = "node" + Integer.toString(rank);
 		nodes = new LinkedHashMap<String,ComputeNode>(size);
 		nodes.put(name, this);
-		if (self)
-			thisNode = this;
 	}
 
 	/**
@@ -137,12 +195,42 @@ public class ComputeNode
 	 */
 	public boolean isSelf()
 	{
-		return this == thisNode;
+		return rank == comm.getRank();
 	}
 
 	public String getHostname()
 	{
-		return hostname;
+		return info.getHostname();
+	}
+
+	/**
+	 * Returns the description of the node's machine and JVM.
+	 * @return Node description, gathered at start-up.
+	 */
+	public NodeInfo getInfo()
+	{
+		return info;
+	}
+
+	/**
+	 * Returns the statistics of the data sent by this node's shuffles.
+	 * Only updated on the node itself.
+	 * @return Shuffle statistics of the node.
+	 */
+	public ShuffleStats getShuffleStats()
+	{
+		return shuffleStats;
+	}
+
+	/**
+	 * Returns the metrics of the messages sent and received by this node,
+	 * per tag and per peer. Only recorded with dstream.metrics=true, and
+	 * only updated on the node itself.
+	 * @return Communication metrics of the node.
+	 */
+	public CommMetrics getCommMetrics()
+	{
+		return commMetrics;
 	}
 
 	/**
@@ -151,7 +239,7 @@ public class ComputeNode
 	 */
 	public static ComputeNode getSelf()
 	{
-		return thisNode;
+		return ComputeGroup.cluster.get(comm.getRank());
 	}
 
 	/**
@@ -161,18 +249,57 @@ public class ComputeNode
 	 */
 	public static ComputeNode findByName(String name)
 	{
-		return thisNode.nodes.get(name);
+		return getSelf().nodes.get(name);
 	}
 
-	private static AtomicLong tagCount = new AtomicLong(0);
+	// Operation counters of the groups this node belongs to, by membership
+	private final ConcurrentHashMap<BitSet,AtomicInteger> tagCount = new ConcurrentHashMap<>();
+	// Ids of the memberships of the groups this node belongs to
+	private final ConcurrentHashMap<BitSet,Integer> groupIds = new ConcurrentHashMap<>();
+	// Membership holding each id taken by this node, to detect collisions
+	private final ConcurrentHashMap<Integer,BitSet> idOwners = new ConcurrentHashMap<>();
 
-	private static final int MIN_TAG = 1;
-	private static final int MAX_TAG = Integer.MAX_VALUE; // BUG: MPI.TAG_UB is zero
-	private static final int WRAP_TAG = MAX_TAG - MIN_TAG;
+	private static final int SEQ_BITS = 12; // Low bits of a tag: operation counter
+	private static final int GROUP_TAGS = (1 << (31 - SEQ_BITS)) - 1; // High bits: membership id, never 0
+
+	/**
+	 * Returns the id of a group membership, computed locally by every member
+	 * as a hash of the set of ranks, so that it takes no communication.
+	 * Different memberships may share an id, with a chance of about
+	 * k^2 / 2^20 among the k memberships of a node. Tags of such memberships
+	 * could be confused only on a node in both, which checks every new id
+	 * against those it has taken, and fails rather than mix up messages.
+	 */
+	private int groupId(BitSet members)
+	{
+		Integer id = groupIds.get(members);
+		if (id != null)
+			return id;
+		// Hash the words of the set, as splitmix64 does, so that nearby sets spread out
+		long h = 0;
+		for (long word: members.toLongArray())
+		{
+			h = (h + word) * 0x9e3779b97f4a7c15L;
+			h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+			h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+			h ^= (h >>> 31);
+		}
+		int hashed = 1 + (int) Long.remainderUnsigned(h, GROUP_TAGS);
+		BitSet owner = idOwners.putIfAbsent(hashed, members);
+		if (owner != null && !owner.equals(members))
+			throw new IllegalStateException("ComputeNode: Group ids of ranks " + owner + " and " + members + " collide on node " + rank);
+		groupIds.putIfAbsent(members, hashed);
+		return hashed;
+	}
 
 	/**
 	 * Returns the next MPI tag for use in group comunications.
-	 * Current algorithm uses MPI rank of (group's) root node concatenated with a counter.
+	 * The high bits of a tag are the id of the set of ranks in the group
+	 * (see groupId()), and the low bits count the tags taken for that set
+	 * of ranks so far, wrapping around after 2^12 tags. Tags are computed
+	 * locally, so every member of the group must call this method for the
+	 * group in the same order. Tags below 2^12, such as those of the
+	 * start-up exchange, are never returned.
 	 * @param grp Associated compute group.
 	 * @return Tag value.
 	 */
@@ -181,19 +308,26 @@ public class ComputeNode
 		ComputeNode self = ComputeNode.getSelf();
 		if (!grp.contains(self))
 			throw new RuntimeException("Node not in group");
-		ComputeNode root = grp.get(0);
-		int mpiTag = -1;
-		if (self == root)
-		{
-			long tag;
-			int clusterSize = ComputeGroup.getCluster().size();
-			tag = self.comm.getRank() + clusterSize * tagCount.getAndIncrement();
-			mpiTag = (int) (tag % WRAP_TAG) + MIN_TAG;
-			for (int i = 1; i < grp.size(); i++)
-				comm.sendInt(mpiTag, grp.get(i).rank, 0); // Send tag to other group members
-		}
-		else
-			mpiTag = comm.recvInt(root.comm.getRank(), 0);
-		return mpiTag;
+		BitSet members = new BitSet(ComputeGroup.cluster.size());
+		for (ComputeNode node: grp)
+			members.set(node.rank);
+		int group = self.groupId(members);
+		int seq = self.tagCount.computeIfAbsent(members, m -> new AtomicInteger(0)).getAndIncrement();
+		return (group << SEQ_BITS) | (seq & ((1 << SEQ_BITS) - 1));
+	}
+
+	/**
+	 * Returns the next MPI tag for use in group comunications, naming the
+	 * operation using it in the node's communication metrics.
+	 * @param grp Associated compute group.
+	 * @param label Name of the operation.
+	 * @return Tag value.
+	 * @see #nextTag(ComputeGroup)
+	 */
+	static int nextTag(ComputeGroup grp, String label)
+	{
+		int tag = nextTag(grp);
+		CommMetrics.label(tag, label);
+		return tag;
 	}
 }
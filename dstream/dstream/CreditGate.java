@@ -0,0 +1,108 @@
+package dstream;
+
+import java.util.concurrent.*;
+
+/**
+ * Sender side of the credit-based flow control of shuffles.
+ * Allows at most CREDITS batches per destination node that the receiver
+ * has not yet consumed. Receivers grant credit back with CreditGrant.
+ * Senders driven by futures use acquireAsync() and drainAsync(), with at
+ * most one of them pending per destination.
+ * @see dstream.CreditGrant
+ */
+class CreditGate
+{
+	static final int CREDITS = Math.max(1, Integer.getInteger("dstream.credits", 8)); // Unconsumed batches per destination
+
+	private final int tag;
+	private final Object[] lock;
+	private final int[] unconsumed; // By rank, guarded by lock[rank]
+
+	/**
+	 * @param tag Tag on which receivers grant credit.
+	 */
+	public CreditGate(int tag)
+	{
+		this.tag = tag;
+		int size = ComputeNode.comm.getSize();
+		lock = new Object[size];
+		unconsumed = new int[size];
+		for (int i = 0; i < size; i++)
+			lock[i] = new Object();
+	}
+
+	/**
+	 * Waits until the specified node has granted credit for one more batch.
+	 * @param rank Destination node's rank.
+	 */
+	public void acquire(int rank)
+	{
+		synchronized (lock[rank])
+		{
+			while (unconsumed[rank] >= CREDITS)
+				unconsumed[rank] -= ComputeNode.comm.recvInt(rank, tag);
+			unconsumed[rank]++;
+		}
+	}
+
+	/**
+	 * Starts waiting until the specified node has granted credit for one more batch.
+	 * Non-blocking counterpart of acquire().
+	 * @param rank Destination node's rank.
+	 * @return Future completed once the batch can be sent.
+	 */
+	public CompletableFuture<Void> acquireAsync(int rank)
+	{
+		synchronized (lock[rank])
+		{
+			if (unconsumed[rank] < CREDITS)
+			{
+				unconsumed[rank]++;
+				return CompletableFuture.completedFuture(null);
+			}
+		}
+		return granted(rank).thenCompose(v -> acquireAsync(rank));
+	}
+
+	/**
+	 * Starts receiving the remaining credit from the specified node.
+	 * Non-blocking counterpart of drain(), for a single destination.
+	 * @param rank Destination node's rank.
+	 * @return Future completed once the node has consumed every batch.
+	 */
+	public CompletableFuture<Void> drainAsync(int rank)
+	{
+		synchronized (lock[rank])
+		{
+			if (unconsumed[rank] == 0)
+				return CompletableFuture.completedFuture(null);
+		}
+		return granted(rank).thenCompose(v -> drainAsync(rank));
+	}
+
+	// Receives one grant of credit, off the thread completing the receive
+	private CompletableFuture<Void> granted(int rank)
+	{
+		return ComputeNode.comm.irecvInt(rank, tag).thenAcceptAsync(n ->
+		{
+			synchronized (lock[rank])
+			{
+				unconsumed[rank] -= n;
+			}
+		}, ComputeNode.comm.executor());
+	}
+
+	/**
+	 * Receives the remaining credit from every destination, so that no
+	 * message is left behind. Must be called after the last batch was sent.
+	 */
+	public void drain()
+	{
+		for (int rank = 0; rank < unconsumed.length; rank++)
+			synchronized (lock[rank])
+			{
+				while (unconsumed[rank] > 0)
+					unconsumed[rank] -= ComputeNode.comm.recvInt(rank, tag);
+			}
+	}
+}
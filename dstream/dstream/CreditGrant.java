@@ -0,0 +1,53 @@
+package dstream;
+
+/**
+ * Receiver side of the credit-based flow control of batch senders.
+ * Counts the batches taken from each source node, and grants them back as
+ * credit to the sender in groups of GRANT batches. The remaining credit is
+ * granted once all senders have sent their end-of-data marker.
+ * Batches may be recorded from any thread.
+ * @see dstream.CreditGate
+ */
+class CreditGrant
+{
+	static final int GRANT = Math.max(1, CreditGate.CREDITS / 2);
+
+	private final int tag;
+	private final int[] consumed; // Batches not yet granted back, by rank
+
+	/**
+	 * @param tag Tag on which credit is granted.
+	 */
+	public CreditGrant(int tag)
+	{
+		this.tag = tag;
+		consumed = new int[ComputeNode.comm.getSize()];
+	}
+
+	/**
+	 * Records a batch taken from the specified node.
+	 * @param src Source node's rank.
+	 */
+	public synchronized void consumed(int src)
+	{
+		if (++consumed[src] >= GRANT)
+		{
+			ComputeNode.comm.sendInt(consumed[src], src, tag);
+			consumed[src] = 0;
+		}
+	}
+
+	/**
+	 * Grants the remaining credit to every source node.
+	 * Must be called after the last end-of-data marker has been received.
+	 */
+	public synchronized void finish()
+	{
+		for (int src = 0; src < consumed.length; src++)
+			if (consumed[src] > 0)
+			{
+				ComputeNode.comm.sendInt(consumed[src], src, tag);
+				consumed[src] = 0;
+			}
+	}
+}
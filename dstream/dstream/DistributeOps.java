@@ -1,5 +1,6 @@
 package dstream;
 
+import dstream.util.*;
 import java.io.*;
 import java.nio.*;
 import java.util.*;
@@ -12,160 +13,648 @@ class DistributeOps
 {
 	private DistributeOps() { } // Do not instantiate
 
-	public static <T> DistributedStream<T> distribute(ReferencePipeline<T> upstream, ComputeGroup dst, Partitioner<? super T> p)
+	public static <T> DistributedStream<T> distribute(ReferencePipeline<T> upstream, ComputeGroup dst, Partitioner<? super T> p, Codec<? super T> codec)
 	{
 		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
 		unionSet.addAll(dst);
 		ComputeGroup union = new ComputeGroup(unionSet);
 		final int size = dst.size();
-		final int tag = ComputeNode.nextTag(union);
-		Thread th = new Thread(() ->
+		final int tag = ComputeNode.nextTag(union, "distribute");
+		final int creditTag = ComputeNode.nextTag(union, "distribute.credit");
+		BatchSender<T> out = new BatchSender<T>(dst, tag, creditTag, codec);
+		Future<?> task = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
 		{
 			upstream.localForEach(e ->
 			{
-				ComputeNode.comm.sendObject(e, dst.get(Math.abs(p.partition(e)) % size).rank, tag);
+				out.add(e, Math.abs(p.partition(e)) % size);
 			});
 			// No more data: send NULL to each node in current and destination groups
-			for (ComputeNode node: union)
-				ComputeNode.comm.sendObject(null, node.rank, tag);
-		});
-		th.start();
-		DistributedSpliterator<T> sp = new DistributedSpliterator<T>(tag, upstream.grp.size(), () ->
-		{
-			try
-			{
-				th.join();
-			}
-			catch (InterruptedException e)
-			{
-				e.printStackTrace();
-				System.exit(1);
-			}
-		});
+			out.finish(union);
+		}));
+		DistributedSpliterator<T> sp = new DistributedSpliterator<T>(tag, creditTag, upstream.grp.size(), codec, () -> CommExecutor.join(task));
 		return new ReferencePipeline<T>(StreamSupport.stream(sp, upstream.isParallel()), dst);
 	}
 
-	public static <T> ReferencePipeline<T> broadcast(ReferencePipeline<T> upstream)
+	/**
+	 * Aggregates elements by key into a map partitioned over a group.
+	 * Elements are folded into partial aggregates per key before they are
+	 * sent (see CombiningSender), so each node sends a key about once rather
+	 * than once per element, and the partial aggregates received from all
+	 * nodes are merged into the map as they arrive.
+	 * @param accumulator Function adding an element to the aggregate of its
+	 * key, which is NULL for the first element.
+	 * @see dstream.CombiningSender
+	 */
+	static <T, K, A> DistributedMap<K, A> combineByKey(ReferencePipeline<T> upstream, ComputeGroup dst, Partitioner<? super K> p,
+		Function<? super T, ? extends K> keyFn, BiFunction<A, ? super T, A> accumulator, BinaryOperator<A> combiner)
 	{
-		final ComputeGroup grp = upstream.grp;
-		final int size = grp.size();
-		final int tag = ComputeNode.nextTag(grp);
-		Thread th = new Thread(() ->
+		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
+		unionSet.addAll(dst);
+		ComputeGroup union = new ComputeGroup(unionSet);
+		final int size = dst.size();
+		final int tag = ComputeNode.nextTag(union, "combineByKey");
+		final int creditTag = ComputeNode.nextTag(union, "combineByKey.credit");
+		Codec<Object> codec = Codec.getDefault();
+		CombiningSender<T,K,A> out = new CombiningSender<T,K,A>(dst, tag, creditTag, codec, accumulator);
+		Future<?> task = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
 		{
 			upstream.localForEach(e ->
 			{
-				for (ComputeNode n: grp)
-					ComputeNode.comm.sendObject(e, n.rank, tag);
+				K key = keyFn.apply(e);
+				out.add(key, e, Math.abs(p.partition(key) % size));
 			});
-			// No more data: send NULL to each node in group
-			for (ComputeNode n: grp)
-				ComputeNode.comm.sendObject(null, n.rank, tag);
-		});
-		th.start();
-		DistributedSpliterator<T> sp = new DistributedSpliterator<T>(tag, upstream.grp.size(), () ->
+			out.finish(union);
+		}));
+		DistributedSpliterator<Map.Entry<K,A>> sp = new DistributedSpliterator<Map.Entry<K,A>>(tag, creditTag, upstream.grp.size(), codec, () -> CommExecutor.join(task));
+		DistributedConcurrentHashMap<K,A> result = new DistributedConcurrentHashMap<K,A>(dst, p);
+		StreamSupport.stream(sp, upstream.isParallel()).forEach(e -> result.merge(e.getKey(), e.getValue(), combiner));
+		return result;
+	}
+
+	public static <T, K, V> DistributedMap<K, V> reduceByKey(ReferencePipeline<T> upstream, ComputeGroup dst, Partitioner<? super K> p,
+		Function<? super T, ? extends K> keyFn, Function<? super T, ? extends V> valueFn, BinaryOperator<V> reducer)
+	{
+		return combineByKey(upstream, dst, p, keyFn, (V a, T e) -> (a == null ? valueFn.apply(e) : reducer.apply(a, valueFn.apply(e))), reducer);
+	}
+
+	public static <T, K, A> DistributedMap<K, A> aggregateByKey(ReferencePipeline<T> upstream, ComputeGroup dst, Partitioner<? super K> p,
+		Function<? super T, ? extends K> keyFn, Supplier<A> zero, BiFunction<A, ? super T, A> accumulator, BinaryOperator<A> combiner)
+	{
+		return combineByKey(upstream, dst, p, keyFn, (A a, T e) -> accumulator.apply(a == null ? zero.get() : a, e), combiner);
+	}
+
+	/**
+	 * Groups elements by key on the nodes of a group, combining the values
+	 * of each key, and streams the resulting entries.
+	 * Keys are partitioned by their hash code.
+	 * @see #reduceByKey(ReferencePipeline, ComputeGroup, Partitioner, Function, Function, BinaryOperator)
+	 */
+	public static <T, K, V> DistributedStream<Map.Entry<K,V>> distributeAndCombine(ReferencePipeline<T> upstream, ComputeGroup dst,
+		Function<? super T, ? extends K> keyFn, Function<? super T, ? extends V> valueFn, BinaryOperator<V> combiner)
+	{
+		DistributedMap<K,V> result = reduceByKey(upstream, dst, Partitioner.hash(), keyFn, valueFn, combiner);
+		Stream<Map.Entry<K,V>> s = StreamSupport.stream(result.entrySet().spliterator(), upstream.isParallel())
+			.map(e -> new AbstractMap.SimpleEntry<K,V>(e)); // Map.Entry is not serialisable
+		return new ReferencePipeline<Map.Entry<K,V>>(s, dst);
+	}
+
+	public static DistributedIntStream distribute(IntPipeline upstream, ComputeGroup dst, IntPartitioner p)
+	{
+		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
+		unionSet.addAll(dst);
+		ComputeGroup union = new ComputeGroup(unionSet);
+		final int size = dst.size();
+		final int tag = ComputeNode.nextTag(union, "distribute");
+		final int creditTag = ComputeNode.nextTag(union, "distribute.credit");
+		IntBatchSender out = new IntBatchSender(dst, tag, creditTag);
+		Future<?> task = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
 		{
-			try
+			upstream.s.forEach(e ->
 			{
-				th.join();
-			}
-			catch (InterruptedException e)
+				out.add(e, Math.abs(p.partition(e)) % size);
+			});
+			// No more data: send empty array to each node in current and destination groups
+			out.finish(union);
+		}));
+		DistributedIntSpliterator sp = new DistributedIntSpliterator(tag, creditTag, upstream.grp.size(), () -> CommExecutor.join(task));
+		return new IntPipeline(StreamSupport.intStream(sp, upstream.isParallel()), dst);
+	}
+
+	public static DistributedLongStream distribute(LongPipeline upstream, ComputeGroup dst, LongPartitioner p)
+	{
+		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
+		unionSet.addAll(dst);
+		ComputeGroup union = new ComputeGroup(unionSet);
+		final int size = dst.size();
+		final int tag = ComputeNode.nextTag(union, "distribute");
+		final int creditTag = ComputeNode.nextTag(union, "distribute.credit");
+		LongBatchSender out = new LongBatchSender(dst, tag, creditTag);
+		Future<?> task = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
+		{
+			upstream.s.forEach(e ->
 			{
-				e.printStackTrace();
-				System.exit(1);
-			}
-		});
+				out.add(e, Math.abs(p.partition(e)) % size);
+			});
+			// No more data: send empty array to each node in current and destination groups
+			out.finish(union);
+		}));
+		DistributedLongSpliterator sp = new DistributedLongSpliterator(tag, creditTag, upstream.grp.size(), () -> CommExecutor.join(task));
+		return new LongPipeline(StreamSupport.longStream(sp, upstream.isParallel()), dst);
+	}
+
+	public static DistributedDoubleStream distribute(DoublePipeline upstream, ComputeGroup dst, DoublePartitioner p)
+	{
+		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
+		unionSet.addAll(dst);
+		ComputeGroup union = new ComputeGroup(unionSet);
+		final int size = dst.size();
+		final int tag = ComputeNode.nextTag(union, "distribute");
+		final int creditTag = ComputeNode.nextTag(union, "distribute.credit");
+		DoubleBatchSender out = new DoubleBatchSender(dst, tag, creditTag);
+		Future<?> task = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
+		{
+			upstream.s.forEach(e ->
+			{
+				out.add(e, Math.abs(p.partition(e)) % size);
+			});
+			// No more data: send empty array to each node in current and destination groups
+			out.finish(union);
+		}));
+		DistributedDoubleSpliterator sp = new DistributedDoubleSpliterator(tag, creditTag, upstream.grp.size(), () -> CommExecutor.join(task));
+		return new DoublePipeline(StreamSupport.doubleStream(sp, upstream.isParallel()), dst);
+	}
+
+	/**
+	 * Sends every item to all nodes in the group.
+	 * Batches go directly to every node in small groups, and otherwise
+	 * down a binomial tree or, for large batches, around a pipelined ring.
+	 * @see dstream.BroadcastSender
+	 */
+	public static <T> ReferencePipeline<T> broadcast(ReferencePipeline<T> upstream)
+	{
+		final ComputeGroup grp = upstream.grp;
+		final int tag = ComputeNode.nextTag(grp, "broadcast");
+		final int creditTag = ComputeNode.nextTag(grp, "broadcast.credit");
+		// Direct routes forward nothing, so need no forwarding credit
+		final int[] forwardTag = new int[grp.size() <= BroadcastSender.DIRECT_MAX ? 0 : grp.size()];
+		for (int i = 0; i < forwardTag.length; i++)
+			forwardTag[i] = ComputeNode.nextTag(grp, "broadcast.forward");
+		BroadcastSender<T> out = new BroadcastSender<T>(grp, tag, creditTag, Codec.getDefault());
+		Future<?> task = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
+		{
+			upstream.localForEach(out::add);
+			// No more data: send end-of-data marker to each node in group
+			out.finish();
+		}));
+		BroadcastSpliterator<T> sp = new BroadcastSpliterator<T>(grp, tag, creditTag, forwardTag, Codec.getDefault(), () -> CommExecutor.join(task));
 		return new ReferencePipeline<T>(StreamSupport.stream(sp, upstream.isParallel()), grp);
 	}
 
+	/**
+	 * Combines the local values of all nodes in a group, and returns the result on every node.
+	 * Values are reduced up a binomial tree rooted at the group's first node,
+	 * then the result is broadcast down the same tree, so both phases take
+	 * log2(P) steps. Each node combines its own value with those of higher
+	 * group indices, so the result is the same as combining in group order.
+	 * @param identity Local value of the current node.
+	 * @param grp Compute group.
+	 * @param combiner Associative function combining two values.
+	 */
 	public static <T> T reduce(T identity, ComputeGroup grp, BinaryOperator<T> combiner)
 	{
+		final int tag = ComputeNode.nextTag(grp, "reduce");
+		final int index = grp.indexOf(ComputeNode.getSelf());
 		T result = identity;
-		final int tag = ComputeNode.nextTag(grp);
-		if (grp.get(0).isSelf())
+		// Reduce: receive from children, then send to parent
+		int mask = 1;
+		for (; mask < grp.size() && (index & mask) == 0; mask <<= 1)
+			if (index + mask < grp.size())
+				result = combiner.apply(result, (T) ComputeNode.comm.recvObject(grp.get(index + mask).rank, tag));
+		if (index != 0)
+			ComputeNode.comm.sendObject(result, grp.get(index - mask).rank, tag);
+		return broadcast(result, grp, index, mask, tag);
+	}
+
+	/**
+	 * Combines the local containers of all nodes in a group, and returns the result on every node.
+	 * Uses the same binomial tree as reduce(), accumulating into the
+	 * container of each node.
+	 * @param identity Local container of the current node.
+	 * @param grp Compute group.
+	 * @param combiner Associative function accumulating the second container into the first one.
+	 */
+	static <T> T combine(T identity, ComputeGroup grp, BiConsumer<T,T> combiner)
+	{
+		final int tag = ComputeNode.nextTag(grp, "combine");
+		final int index = grp.indexOf(ComputeNode.getSelf());
+		T result = identity;
+		int mask = 1;
+		for (; mask < grp.size() && (index & mask) == 0; mask <<= 1)
+			if (index + mask < grp.size())
+				combiner.accept(result, (T) ComputeNode.comm.recvObject(grp.get(index + mask).rank, tag));
+		if (index != 0)
+			ComputeNode.comm.sendObject(result, grp.get(index - mask).rank, tag);
+		return broadcast(result, grp, index, mask, tag);
+	}
+
+	/**
+	 * Combines arrays of long integers of all nodes in a group, and returns the result on every node.
+	 * @param values Array of the current node. May be modified or returned.
+	 * @param grp Compute group.
+	 * @param combiner Associative function combining two arrays, which may
+	 * modify and return the first one.
+	 * @see dstream.Communicator#allreduceLongArray(long[], BinaryOperator, int[], int)
+	 */
+	static long[] allreduce(long[] values, ComputeGroup grp, BinaryOperator<long[]> combiner)
+	{
+		final int tag = ComputeNode.nextTag(grp, "allreduce");
+		return ComputeNode.comm.allreduceLongArray(values, combiner, ranks(grp), tag);
+	}
+
+	/**
+	 * Combines arrays of doubles of all nodes in a group, and returns the result on every node.
+	 * @see #allreduce(long[], ComputeGroup, BinaryOperator)
+	 */
+	static double[] allreduce(double[] values, ComputeGroup grp, BinaryOperator<double[]> combiner)
+	{
+		final int tag = ComputeNode.nextTag(grp, "allreduce");
+		return ComputeNode.comm.allreduceDoubleArray(values, combiner, ranks(grp), tag);
+	}
+
+	private static int[] ranks(ComputeGroup grp)
+	{
+		int[] ranks = new int[grp.size()];
+		for (int i = 0; i < ranks.length; i++)
+			ranks[i] = grp.get(i).rank;
+		return ranks;
+	}
+
+	// Concatenates two arrays, for gathering the elements of all nodes in group order
+	static long[] concat(long[] a, long[] b)
+	{
+		long[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	static double[] concat(double[] a, double[] b)
+	{
+		double[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	/**
+	 * Sends the result of a reduction down the binomial tree.
+	 * @param mask Lowest bit set in index, or the first power of two not
+	 * below the group size for the root.
+	 */
+	private static <T> T broadcast(T result, ComputeGroup grp, int index, int mask, int tag)
+	{
+		if (index != 0)
+			result = (T) ComputeNode.comm.recvObject(grp.get(index - mask).rank, tag);
+		for (mask >>= 1; mask > 0; mask >>= 1)
+			if (index + mask < grp.size())
+				ComputeNode.comm.sendObject(result, grp.get(index + mask).rank, tag);
+		return result;
+	}
+
+	/**
+	 * Keeps the first maxSize elements of a stream, ordered by the index of
+	 * their node in the group, then by their order on the node.
+	 * The offset of each node is found by readAhead(), which stops reading
+	 * upstream once the nodes before a node cover maxSize, or once they
+	 * cannot supply maxSize elements together with it. The elements a node
+	 * has not read by then are left to be read lazily.
+	 */
+	public static <T> DistributedStream<T> limit(ReferencePipeline<T> upstream, long maxSize)
+	{
+		if (maxSize < 0)
+			throw new IllegalArgumentException(Long.toString(maxSize));
+		Spliterator<T> sp = upstream.s.spliterator();
+		List<T> head = new ArrayList<T>();
+		Consumer<T> add = head::add;
+		long keep = readAhead(sp, () -> sp.tryAdvance(add), maxSize, false, upstream.grp);
+		Stream<T> s;
+		if (keep <= head.size())
+			s = (upstream.isParallel() ? head.subList(0, (int) keep).parallelStream() : head.subList(0, (int) keep).stream());
+		else
 		{
-			for (int i = 1; i < grp.size(); i++)
-			{
-				T more = (T) ComputeNode.comm.recvObject(tag);
-				result = combiner.apply(result, more);
-			}
-			for (int i = 1; i < grp.size(); i++)
-				ComputeNode.comm.sendObject(result, grp.get(i).rank, tag);
+			s = StreamSupport.stream(sp, upstream.isParallel());
+			if (keep != ALL)
+				s = s.limit(keep - head.size());
+			if (!head.isEmpty())
+				s = Stream.concat(head.stream(), s);
 		}
+		return new ReferencePipeline<T>(s.onClose(upstream.s::close), upstream.grp);
+	}
+
+	public static DistributedIntStream limit(IntPipeline upstream, long maxSize)
+	{
+		if (maxSize < 0)
+			throw new IllegalArgumentException(Long.toString(maxSize));
+		Spliterator.OfInt sp = upstream.s.spliterator();
+		IntStream.Builder head = IntStream.builder();
+		long[] read = new long[1]; // Elements in head
+		IntConsumer add = x -> { head.accept(x); read[0]++; };
+		long keep = readAhead(sp, () -> sp.tryAdvance(add), maxSize, false, upstream.grp);
+		IntStream s;
+		if (keep <= read[0])
+			s = (upstream.isParallel() ? head.build().limit(keep).parallel() : head.build().limit(keep));
 		else
 		{
-			ComputeNode.comm.sendObject(identity, grp.get(0).rank, tag);
-			result = (T) ComputeNode.comm.recvObject(tag);
+			s = StreamSupport.intStream(sp, upstream.isParallel());
+			if (keep != ALL)
+				s = s.limit(keep - read[0]);
+			if (read[0] > 0)
+				s = IntStream.concat(head.build(), s);
 		}
-		return result;
+		return new IntPipeline(s.onClose(upstream.s::close), upstream.grp);
 	}
 
-	static <T> T combine(T identity, ComputeGroup grp, BiConsumer<T,T> combiner)
+	public static DistributedLongStream limit(LongPipeline upstream, long maxSize)
 	{
-		T result = identity;
-		final int tag = ComputeNode.nextTag(grp);
-		if (grp.get(0).isSelf())
+		if (maxSize < 0)
+			throw new IllegalArgumentException(Long.toString(maxSize));
+		Spliterator.OfLong sp = upstream.s.spliterator();
+		LongStream.Builder head = LongStream.builder();
+		long[] read = new long[1]; // Elements in head
+		LongConsumer add = x -> { head.accept(x); read[0]++; };
+		long keep = readAhead(sp, () -> sp.tryAdvance(add), maxSize, false, upstream.grp);
+		LongStream s;
+		if (keep <= read[0])
+			s = (upstream.isParallel() ? head.build().limit(keep).parallel() : head.build().limit(keep));
+		else
 		{
-			for (int i = 1; i < grp.size(); i++)
-			{
-				T more = (T) grp.get(i).comm.recvObject(tag);
-				combiner.accept(result, more);
-			}
-			for (int i = 1; i < grp.size(); i++)
-				ComputeNode.comm.sendObject(result, grp.get(i).rank, tag);
+			s = StreamSupport.longStream(sp, upstream.isParallel());
+			if (keep != ALL)
+				s = s.limit(keep - read[0]);
+			if (read[0] > 0)
+				s = LongStream.concat(head.build(), s);
 		}
+		return new LongPipeline(s.onClose(upstream.s::close), upstream.grp);
+	}
+
+	public static DistributedDoubleStream limit(DoublePipeline upstream, long maxSize)
+	{
+		if (maxSize < 0)
+			throw new IllegalArgumentException(Long.toString(maxSize));
+		Spliterator.OfDouble sp = upstream.s.spliterator();
+		DoubleStream.Builder head = DoubleStream.builder();
+		long[] read = new long[1]; // Elements in head
+		DoubleConsumer add = x -> { head.accept(x); read[0]++; };
+		long keep = readAhead(sp, () -> sp.tryAdvance(add), maxSize, false, upstream.grp);
+		DoubleStream s;
+		if (keep <= read[0])
+			s = (upstream.isParallel() ? head.build().limit(keep).parallel() : head.build().limit(keep));
 		else
 		{
-			ComputeNode.comm.sendObject(identity, grp.get(0).rank, tag);
-			result = (T) ComputeNode.comm.recvObject(tag);
+			s = StreamSupport.doubleStream(sp, upstream.isParallel());
+			if (keep != ALL)
+				s = s.limit(keep - read[0]);
+			if (read[0] > 0)
+				s = DoubleStream.concat(head.build(), s);
 		}
-		return result;
+		return new DoublePipeline(s.onClose(upstream.s::close), upstream.grp);
 	}
 
+	/**
+	 * Removes the first n elements of a stream, ordered as for limit().
+	 * The offset of each node is found by readAhead(), as for limit(), but
+	 * nodes read ahead only the elements they are sure to remove, which are
+	 * counted instead of being kept. The others are read lazily.
+	 */
+	public static <T> DistributedStream<T> skip(ReferencePipeline<T> upstream, long n)
+	{
+		if (n < 0)
+			throw new IllegalArgumentException(Long.toString(n));
+		Spliterator<T> sp = upstream.s.spliterator();
+		long drop = readAhead(sp, () -> sp.tryAdvance(x -> {}), n, true, upstream.grp);
+		Stream<T> s = StreamSupport.stream(sp, upstream.isParallel());
+		if (drop > 0)
+			s = s.skip(drop);
+		return new ReferencePipeline<T>(s.onClose(upstream.s::close), upstream.grp);
+	}
+
+	public static DistributedIntStream skip(IntPipeline upstream, long n)
+	{
+		if (n < 0)
+			throw new IllegalArgumentException(Long.toString(n));
+		Spliterator.OfInt sp = upstream.s.spliterator();
+		long drop = readAhead(sp, () -> sp.tryAdvance((int x) -> {}), n, true, upstream.grp);
+		IntStream s = StreamSupport.intStream(sp, upstream.isParallel());
+		if (drop > 0)
+			s = s.skip(drop);
+		return new IntPipeline(s.onClose(upstream.s::close), upstream.grp);
+	}
+
+	public static DistributedLongStream skip(LongPipeline upstream, long n)
+	{
+		if (n < 0)
+			throw new IllegalArgumentException(Long.toString(n));
+		Spliterator.OfLong sp = upstream.s.spliterator();
+		long drop = readAhead(sp, () -> sp.tryAdvance((long x) -> {}), n, true, upstream.grp);
+		LongStream s = StreamSupport.longStream(sp, upstream.isParallel());
+		if (drop > 0)
+			s = s.skip(drop);
+		return new LongPipeline(s.onClose(upstream.s::close), upstream.grp);
+	}
+
+	public static DistributedDoubleStream skip(DoublePipeline upstream, long n)
+	{
+		if (n < 0)
+			throw new IllegalArgumentException(Long.toString(n));
+		Spliterator.OfDouble sp = upstream.s.spliterator();
+		long drop = readAhead(sp, () -> sp.tryAdvance((double x) -> {}), n, true, upstream.grp);
+		DoubleStream s = StreamSupport.doubleStream(sp, upstream.isParallel());
+		if (drop > 0)
+			s = s.skip(drop);
+		return new DoublePipeline(s.onClose(upstream.s::close), upstream.grp);
+	}
+
+	private static final int READ_AHEAD = 1 << 16; // Most elements read by a node per round of readAhead()
+	private static final long ALL = Long.MAX_VALUE; // Returned by readAhead() when all local elements are within the bound
+
+	/**
+	 * Reads local elements in rounds until every node knows how many of its
+	 * elements fall within a bound on the number of elements before them.
+	 * A node with more elements than the bound, together with the nodes
+	 * before it, needs the exact count of those nodes, up to the bound. A
+	 * node reads only while a node after it needs this. Nodes whose size is
+	 * known (SIZED spliterators) never read, and nodes whose size is not
+	 * known count as unbounded until they run out of elements, with sums
+	 * saturating at Long.MAX_VALUE. After each round, the counts of all
+	 * nodes are combined by an allreduce of long arrays, so that all nodes
+	 * see the same state and take the same number of rounds.
+	 * For limit(), nodes read at once, keeping what they read, in rounds of
+	 * bound / P elements doubling up to 65536. For skip(), a node reads only
+	 * once the nodes before it have run out, and then reads every element it
+	 * is sure to remove, so that it can discard them.
+	 * @param sp Local elements, used for their exact size if known.
+	 * @param read Reads the next element of sp, returning false if none is left.
+	 * @param bound Number of elements beyond which counts no longer matter.
+	 * @param drop Whether the elements read are discarded, as for skip().
+	 * @param grp Compute group.
+	 * @return Number of local elements within the bound, less those
+	 * discarded, or ALL if all local elements are within it.
+	 */
+	static long readAhead(Spliterator<?> sp, BooleanSupplier read, long bound, boolean drop, ComputeGroup grp)
+	{
+		final int size = grp.size();
+		final int index = grp.indexOf(ComputeNode.getSelf());
+		long[] state = new long[2 * size]; // Count of each node, then whether it ran out
+		long exact = sp.getExactSizeIfKnown();
+		long count = 0; // Local elements read, or the exact size
+		long discarded = 0; // Local elements read for skip()
+		boolean ended = false;
+		long step = Math.max(1, Math.min(READ_AHEAD, bound / size));
+		while (true)
+		{
+			// Bounds on the count of the nodes before each node
+			long[] low = new long[size + 1];
+			long[] high = new long[size + 1];
+			for (int i = 0; i < size; i++)
+			{
+				low[i + 1] = low[i] + state[i];
+				high[i + 1] = saturatedAdd(high[i], state[size + i] != 0 ? state[i] : Long.MAX_VALUE);
+			}
+			boolean waiting = false; // Whether a node after the current one needs more counts
+			long need = 0; // Elements the current node still has to read
+			boolean more = false;
+			for (int i = size - 1; i >= 0; i--)
+			{
+				if (waiting && state[size + i] == 0)
+				{
+					long left = Math.max(0, bound - low[i + 1]);
+					more |= (left > 0);
+					if (i == index && (!drop || low[i] == high[i]))
+						need = left;
+				}
+				waiting |= !(low[i] >= bound || high[i + 1] <= bound || low[i] == high[i]);
+			}
+			if (!more)
+			{
+				if (low[index] >= bound)
+					return 0;
+				if (high[index + 1] <= bound)
+					return ALL;
+				return bound - low[index] - discarded;
+			}
+			if (exact >= 0)
+			{
+				count = exact;
+				ended = true;
+			}
+			for (long k = (drop ? need : Math.min(need, step)); k > 0 && !ended; k--)
+			{
+				if (read.getAsBoolean())
+				{
+					count++;
+					if (drop)
+						discarded++;
+				}
+				else
+					ended = true;
+			}
+			long[] mine = new long[2 * size];
+			mine[index] = count;
+			mine[size + index] = (ended ? 1 : 0);
+			state = allreduce(mine, grp, DistributeOps::sum);
+			step = Math.min(READ_AHEAD, step * 2);
+		}
+	}
+
+	// Adds two non-negative counts, saturating at Long.MAX_VALUE
+	private static long saturatedAdd(long a, long b)
+	{
+		long s = a + b;
+		return (s < 0 ? Long.MAX_VALUE : s);
+	}
+
+	// Adds two arrays element by element, into the first one
+	private static long[] sum(long[] a, long[] b)
+	{
+		for (int i = 0; i < a.length; i++)
+			a[i] += b[i];
+		return a;
+	}
+
+	/**
+	 * Splits a stream into streams of the same elements, read from the
+	 * upstream once. Primitive streams are split as boxed streams.
+	 * @see dstream.Tee
+	 */
 	public static <T> DistributedStream<T>[] split(ReferencePipeline<T> upstream, int num)
 	{
-		// TODO
-		return null;
+		Tee<T> tee = new Tee<T>(upstream.s.spliterator(), num, upstream.s::close);
+		DistributedStream<T>[] streams = new DistributedStream[num];
+		for (int i = 0; i < num; i++)
+			streams[i] = new ReferencePipeline<T>(branch(tee, i, upstream.isParallel()), upstream.grp);
+		return streams;
 	}
 
 	public static DistributedIntStream[] split(IntPipeline upstream, int num)
 	{
-		// TODO
-		return null;
+		Tee<Integer> tee = new Tee<Integer>(upstream.s.boxed().spliterator(), num, upstream.s::close);
+		DistributedIntStream[] streams = new DistributedIntStream[num];
+		for (int i = 0; i < num; i++)
+			streams[i] = new IntPipeline(branch(tee, i, upstream.isParallel()).mapToInt(Integer::intValue), upstream.grp);
+		return streams;
 	}
 
 	public static DistributedLongStream[] split(LongPipeline upstream, int num)
 	{
-		// TODO
-		return null;
+		Tee<Long> tee = new Tee<Long>(upstream.s.boxed().spliterator(), num, upstream.s::close);
+		DistributedLongStream[] streams = new DistributedLongStream[num];
+		for (int i = 0; i < num; i++)
+			streams[i] = new LongPipeline(branch(tee, i, upstream.isParallel()).mapToLong(Long::longValue), upstream.grp);
+		return streams;
 	}
 
 	public static DistributedDoubleStream[] split(DoublePipeline upstream, int num)
 	{
-		// TODO
-		return null;
+		Tee<Double> tee = new Tee<Double>(upstream.s.boxed().spliterator(), num, upstream.s::close);
+		DistributedDoubleStream[] streams = new DistributedDoubleStream[num];
+		for (int i = 0; i < num; i++)
+			streams[i] = new DoublePipeline(branch(tee, i, upstream.isParallel()).mapToDouble(Double::doubleValue), upstream.grp);
+		return streams;
 	}
 
+	// Local stream of a branch, which stops buffering once closed
+	private static <T> Stream<T> branch(Tee<T> tee, int index, boolean parallel)
+	{
+		return StreamSupport.stream(tee.branch(index), parallel).onClose(() -> tee.close(index));
+	}
+
+	/**
+	 * Concatenates the local elements of streams, over the union of their
+	 * compute groups, in argument order.
+	 */
 	public static <T> DistributedStream<T> join(ReferencePipeline<T> upstream, DistributedStream<T>[] streams)
 	{
-		// TODO
-		return null;
+		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
+		Stream<T> s = upstream.s;
+		for (DistributedStream<T> i: streams)
+		{
+			unionSet.addAll(i.getComputeGroup());
+			s = Stream.concat(s, i);
+		}
+		return new ReferencePipeline<T>(s, new ComputeGroup(unionSet));
 	}
 
 	public static DistributedIntStream join(IntPipeline upstream, DistributedIntStream[] streams)
 	{
-		// TODO
-		return null;
+		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
+		IntStream s = upstream.s;
+		for (DistributedIntStream i: streams)
+		{
+			unionSet.addAll(i.getComputeGroup());
+			s = IntStream.concat(s, i);
+		}
+		return new IntPipeline(s, new ComputeGroup(unionSet));
 	}
 
 	public static DistributedLongStream join(LongPipeline upstream, DistributedLongStream[] streams)
 	{
-		// TODO
-		return null;
+		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
+		LongStream s = upstream.s;
+		for (DistributedLongStream i: streams)
+		{
+			unionSet.addAll(i.getComputeGroup());
+			s = LongStream.concat(s, i);
+		}
+		return new LongPipeline(s, new ComputeGroup(unionSet));
 	}
 
 	public static DistributedDoubleStream join(DoublePipeline upstream, DistributedDoubleStream[] streams)
 	{
-		// TODO
-		return null;
+		LinkedHashSet<ComputeNode> unionSet = new LinkedHashSet<ComputeNode>(upstream.grp);
+		DoubleStream s = upstream.s;
+		for (DistributedDoubleStream i: streams)
+		{
+			unionSet.addAll(i.getComputeGroup());
+			s = DoubleStream.concat(s, i);
+		}
+		return new DoublePipeline(s, new ComputeGroup(unionSet));
 	}
 }
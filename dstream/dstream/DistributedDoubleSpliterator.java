@@ -0,0 +1,107 @@
+package dstream;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Spliterator implementation for receiving double values in a distribute operation.
+ * Values arrive in batches sent by DoubleBatchSender.
+ * @see dstream.DoubleBatchSender
+ */
+class DistributedDoubleSpliterator implements Spliterator.OfDouble
+{
+	private int tag;
+	private int end;
+	private CreditGrant credit;
+	private Runnable cleanup;
+	private double[] batch;
+	private int index;
+
+	public DistributedDoubleSpliterator(int tag, int creditTag, int grpSize, Runnable cleanup)
+	{
+		this.tag = tag;
+		end = grpSize;
+		credit = new CreditGrant(creditTag);
+		this.cleanup = cleanup;
+		batch = null;
+		index = 0;
+	}
+
+	// Returns true if there are values left in the current batch
+	private boolean nextBatch()
+	{
+		if (batch != null && index < batch.length)
+			return true;
+		batch = null;
+		while (end > 0)
+		{
+			double[] b = ComputeNode.comm.recvDoubleArray(tag);
+			if (b.length > 0)
+			{
+				credit.consumed((int) b[0]);
+				if (b.length == 1)
+					continue;
+				batch = b;
+				index = 1; // Skip the sender's rank
+				return true;
+			}
+			end--;
+		}
+		if (credit != null)
+		{
+			credit.finish();
+			credit = null;
+		}
+		if (cleanup != null)
+		{
+			cleanup.run();
+			cleanup = null;
+		}
+		return false;
+	}
+
+	@Override
+	public int characteristics()
+	{
+		return IMMUTABLE | SUBSIZED;
+	}
+
+	@Override
+	public boolean tryAdvance(DoubleConsumer action)
+	{
+		if (!nextBatch())
+			return false;
+		action.accept(batch[index++]);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(DoubleConsumer action)
+	{
+		while (nextBatch())
+		{
+			double[] b = batch;
+			int n = b.length;
+			batch = null;
+			for (int i = index; i < n; i++)
+				action.accept(b[i]);
+		}
+	}
+
+	@Override
+	public Spliterator.OfDouble trySplit()
+	{
+		// Hand over the rest of the current batch
+		if (!nextBatch())
+			return null;
+		Spliterator.OfDouble sp = Spliterators.spliterator(batch, index, batch.length, characteristics() | SIZED);
+		batch = null;
+		return sp;
+	}
+
+	@Override
+	public long estimateSize()
+	{
+		return Long.MAX_VALUE;
+	}
+}
@@ -78,7 +78,11 @@ public interface DistributedIntStream extends IntStream
 	/**
 	 * Splits the current stream into multiple streams, with each
 	 * stream containing all elements of the current stream.
-	 * A stateful eager intermediate operation.
+	 * A stateful intermediate operation. The current stream is read once,
+	 * as the returned streams are consumed: elements that one of them has
+	 * not reached yet are buffered for it, spilling to disk beyond
+	 * dstream.split.buffer elements (default 65536). Close the returned
+	 * streams that are not consumed, so that they stop buffering.
 	 * @param numStreams Number of streams to create.
 	 * @return Array of DistributedIntStreams.
 	 */
@@ -88,8 +92,9 @@ public interface DistributedIntStream extends IntStream
 	 * Merges multiple streams into a single stream containing all
 	 * elements from the source streams.
 	 * The resulting stream's compute group is the union of all source
-	 * stream compute groups.
-	 * A stateful eager intermediate operation.
+	 * stream compute groups. The elements of the current stream come
+	 * first, then those of each stream in argument order.
+	 * A lazy intermediate operation.
 	 * @param streams Array or argument list of streams to merge.
 	 * @return A single DistributedIntStream.
 	 */
@@ -281,7 +286,13 @@ public interface DistributedIntStream extends IntStream
 
 	/**
 	 * Keeps only the specified number of elements in the DistributedIntStream.
-	 * An intermediate operation.
+	 * Elements are ordered by the index of their node in the compute
+	 * group, then by their order in the local stream. Nodes read their
+	 * elements in rounds, exchanging counts after each one, and stop once
+	 * the nodes before them hold maxSize elements, or can no longer reach
+	 * it. Nodes with a known size do not read ahead. Elements read this way
+	 * are held in memory; the others are read lazily.
+	 * A stateful eager intermediate operation.
 	 * @param maxSize Maximum number of elements to keep.
 	 * @return DistributedIntStream truncated to maxSize elements.
 	 */
@@ -349,9 +360,12 @@ public interface DistributedIntStream extends IntStream
 	public DistributedIntStream sequential();
 
 	/**
-	 * Removes the first n elements in the DistributedIntStream.
-	 * A stateful intermediate operation.
-	 * @param n Number of local elements to skip.
+	 * Removes the first n elements in the DistributedIntStream, ordered as for
+	 * limit(). Nodes count the elements they are sure to skip, in group
+	 * order, until each knows how many of its elements to skip. Elements
+	 * are not held in memory.
+	 * A stateful eager intermediate operation.
+	 * @param n Number of elements to skip.
 	 * @return DistributedIntStream with the elements removed.
 	 */
 	public DistributedIntStream skip(long n);
@@ -79,7 +79,11 @@ public interface DistributedLongStream extends LongStream
 	/**
 	 * Splits the current stream into multiple streams, with each
 	 * stream containing all elements of the current stream.
-	 * A stateful eager intermediate operation.
+	 * A stateful intermediate operation. The current stream is read once,
+	 * as the returned streams are consumed: elements that one of them has
+	 * not reached yet are buffered for it, spilling to disk beyond
+	 * dstream.split.buffer elements (default 65536). Close the returned
+	 * streams that are not consumed, so that they stop buffering.
 	 * @param numStreams Number of streams to create.
 	 * @return Array of DistributedLongStreams.
 	 */
@@ -89,8 +93,9 @@ public interface DistributedLongStream extends LongStream
 	 * Merges multiple streams into a single stream containing all
 	 * elements from the source streams.
 	 * The resulting stream's compute group is the union of all source
-	 * stream compute groups.
-	 * A stateful eager intermediate operation.
+	 * stream compute groups. The elements of the current stream come
+	 * first, then those of each stream in argument order.
+	 * A lazy intermediate operation.
 	 * @param streams Array or argument list of streams to merge.
 	 * @return A single DistributedDoubleStream.
 	 */
@@ -294,7 +299,13 @@ public interface DistributedLongStream extends LongStream
 
 	/**
 	 * Keeps only the specified number of elements in the DistributedLongStream.
-	 * An intermediate operation.
+	 * Elements are ordered by the index of their node in the compute
+	 * group, then by their order in the local stream. Nodes read their
+	 * elements in rounds, exchanging counts after each one, and stop once
+	 * the nodes before them hold maxSize elements, or can no longer reach
+	 * it. Nodes with a known size do not read ahead. Elements read this way
+	 * are held in memory; the others are read lazily.
+	 * A stateful eager intermediate operation.
 	 * @param maxSize Maximum number of elements to keep.
 	 * @return DistributedLongStream truncated to maxSize elements.
 	 */
@@ -362,9 +373,12 @@ public interface DistributedLongStream extends LongStream
 	public DistributedLongStream sequential();
 
 	/**
-	 * Removes the first n elements in the DistributedLongStream.
-	 * A stateful intermediate operation.
-	 * @param n Number of local elements to skip.
+	 * Removes the first n elements in the DistributedLongStream, ordered as for
+	 * limit(). Nodes count the elements they are sure to skip, in group
+	 * order, until each knows how many of its elements to skip. Elements
+	 * are not held in memory.
+	 * A stateful eager intermediate operation.
+	 * @param n Number of elements to skip.
 	 * @return DistributedLongStream with the elements removed.
 	 */
 	public DistributedLongStream skip(long n);
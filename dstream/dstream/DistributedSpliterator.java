@@ -1,42 +1,133 @@
 package dstream;
 
+import java.nio.*;
 import java.util.*;
 import java.util.concurrent.atomic.*;
 import java.util.function.*;
 
 /**
  * Spliterator implementation for receiving data items in a distribute operation.
+ * Items arrive in batches sent by BatchSender, and are decoded with the
+ * same codec unless the communicator passes them by reference.
+ * Batches handed over by trySplit() are decoded by the thread that takes
+ * them, so a parallel stream decodes on all of its workers.
+ * @see dstream.BatchSender
  */
 class DistributedSpliterator<T> implements Spliterator<T>
 {
-	private static final int BATCH = 256;
-
-	private int tag;
+	protected final int tag;
+	protected final CreditGrant credit;
+	protected final Codec<?> codec;
 	private int end;
+	private boolean finished; // All batches received
 	private Runnable cleanup;
+	private Object[] batch;
+	private int index;
 
-	static final class Holder<U> implements Consumer<U>
+	public DistributedSpliterator(int tag, int creditTag, int grpSize, Codec<?> codec)
 	{
-		U obj;
+		this.tag = tag;
+		end = grpSize;
+		credit = new CreditGrant(creditTag);
+		this.codec = codec;
+		finished = false;
+		cleanup = null;
+		batch = null;
+		index = 0;
+	}
 
-		@Override
-		public void accept(U value)
+	public DistributedSpliterator(int tag, int creditTag, int grpSize, Codec<?> codec, Runnable cleanup)
+	{
+		this(tag, creditTag, grpSize, codec);
+		this.cleanup = cleanup;
+	}
+
+	/**
+	 * Receives the next batch, and grants credit for it.
+	 * @return The batch as received (encoded, or an array of objects when
+	 * passed by reference), or NULL once all senders have finished.
+	 */
+	protected Object receive()
+	{
+		while (end > 0)
 		{
-			obj = value;
+			if (ComputeNode.comm.passesReferences())
+			{
+				Object[] obj = new Object[1];
+				int src = ComputeNode.comm.recvObject(obj, tag);
+				if (obj[0] != null) // Null at end
+				{
+					credit.consumed(src);
+					return obj[0];
+				}
+			}
+			else
+			{
+				ByteBuffer msg = ComputeNode.comm.recvBuffer(tag);
+				if (msg.limit() > 0)
+				{
+					credit.consumed(BatchSender.source(msg.array(), 0));
+					return msg;
+				}
+				BufferPool.release(msg.array());
+			}
+			end--;
 		}
+		return null;
 	}
 
-	public DistributedSpliterator(int tag, int grpSize)
+	/**
+	 * Decodes a batch returned by receive().
+	 * Can be called by any thread.
+	 */
+	protected Object[] decode(Object raw)
 	{
-		this.tag = tag;
-		end = grpSize;
-		cleanup = null;
+		if (raw instanceof Object[])
+			return (Object[]) raw;
+		ByteBuffer msg = (ByteBuffer) raw;
+		long start = System.nanoTime();
+		Object[] batch = BatchSender.decode(msg.array(), 0, msg.limit(), codec);
+		CommMetrics.decoded(tag, System.nanoTime() - start);
+		BufferPool.release(msg.array());
+		return batch;
 	}
 
-	public DistributedSpliterator(int tag, int grpSize, Runnable cleanup)
+	// Returns the next batch as received, or NULL after the last one
+	private Object nextRaw()
 	{
-		this(tag, grpSize);
-		this.cleanup = cleanup;
+		if (finished)
+			return null;
+		Object raw = receive();
+		if (raw != null)
+			return raw;
+		finished = true;
+		credit.finish();
+		if (cleanup != null)
+		{
+			cleanup.run();
+			cleanup = null;
+		}
+		return null;
+	}
+
+	// Returns true if there are items left in the current batch
+	private boolean nextBatch()
+	{
+		if (batch != null && index < batch.length)
+			return true;
+		batch = null;
+		Object raw;
+		while ((raw = nextRaw()) != null)
+		{
+			Object[] b = decode(raw);
+			if (b.length > 0)
+			{
+				batch = b;
+				index = 0;
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
@@ -48,34 +139,97 @@ class DistributedSpliterator<T> implements Spliterator<T>
 	@Override
 	public boolean tryAdvance(Consumer<? super T> action)
 	{
-		while (end > 0)
+		if (!nextBatch())
+			return false;
+		T obj = (T) batch[index];
+		batch[index++] = null;
+		action.accept(obj);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action)
+	{
+		while (nextBatch())
 		{
-			T obj = (T) ComputeNode.comm.recvObject(tag);
-			if (obj != null)
-			{
-				action.accept(obj);
-				return true;
-			}
-			end--;
+			Object[] b = batch;
+			int n = b.length;
+			batch = null;
+			for (int i = index; i < n; i++)
+				action.accept((T) b[i]);
 		}
-		if (cleanup != null)
-			cleanup.run();
-		return false;
 	}
 
 	@Override
 	public Spliterator<T> trySplit()
 	{
-		List<T> li = new ArrayList<T>(BATCH);
-		Holder<T> hold = new Holder<T>();
-		for (int i = 0; end > 0 && i < BATCH; i++)
-			if (tryAdvance(hold))
-				li.add(hold.obj);
-			else
-				break;
-		if (li.size() > 0)
-			return Spliterators.spliterator(li.iterator(), li.size(), characteristics() | SIZED);
-		return null;
+		// Hand over the rest of the current batch
+		if (batch != null && index < batch.length)
+		{
+			Spliterator<T> sp = Spliterators.spliterator(batch, index, batch.length, characteristics() | SIZED);
+			batch = null;
+			return sp;
+		}
+		// Or the next batch, to be decoded by the thread that takes it
+		Object raw = nextRaw();
+		return (raw != null ? new EncodedBatch(raw) : null);
+	}
+
+	/**
+	 * Batch handed over by trySplit() before being decoded.
+	 * Decoded by the first thread that traverses or splits it, so that the
+	 * batches of a parallel stream are decoded by several workers.
+	 */
+	private final class EncodedBatch implements Spliterator<T>
+	{
+		private Object raw;
+		private Spliterator<T> items;
+
+		EncodedBatch(Object raw)
+		{
+			this.raw = raw;
+			items = null;
+		}
+
+		private Spliterator<T> items()
+		{
+			if (items == null)
+			{
+				items = Spliterators.spliterator(decode(raw), DistributedSpliterator.this.characteristics() | SIZED);
+				raw = null;
+			}
+			return items;
+		}
+
+		@Override
+		public int characteristics()
+		{
+			return DistributedSpliterator.this.characteristics();
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action)
+		{
+			return items().tryAdvance(action);
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super T> action)
+		{
+			items().forEachRemaining(action);
+		}
+
+		@Override
+		public Spliterator<T> trySplit()
+		{
+			return items().trySplit();
+		}
+
+		@Override
+		public long estimateSize()
+		{
+			return (items != null ? items.estimateSize() : AbstractBatchSender.BATCH);
+		}
 	}
 
 	@Override
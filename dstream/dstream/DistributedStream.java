@@ -1,5 +1,6 @@
 package dstream;
 
+import dstream.util.*;
 import java.util.*;
 import java.util.function.*;
 import java.util.stream.*;
@@ -67,6 +68,19 @@ public interface DistributedStream<T> extends Stream<T>
 	public DistributedStream<T> distribute(ComputeGroup grp,
 		Partitioner<? super T> p);
 
+	/**
+	 * Sends data elements from nodes in the current compute group to
+	 * another compute group according to the specified partitioner,
+	 * encoding them with the specified codec.
+	 * A stateful eager intermediate operation.
+	 * @param grp Destination compute group.
+	 * @param p Programmer-defined partitioner.
+	 * @param codec Codec for encoding data elements. @see dstream.Codec
+	 * @return Distributed Stream consisting of all elements.
+	 */
+	public DistributedStream<T> distribute(ComputeGroup grp,
+		Partitioner<? super T> p, Codec<? super T> codec);
+
 	/**
 	 * Sends data elements from nodes in the current compute group to
 	 * the specified node.
@@ -76,10 +90,217 @@ public interface DistributedStream<T> extends Stream<T>
 	 */
 	public DistributedStream<T> distribute(ComputeNode node);
 
+	/**
+	 * Groups data elements by key between nodes in the current compute
+	 * group, combining the values of each key with the specified function.
+	 * Values are combined locally before being sent, so each node sends
+	 * about one partial aggregate per key instead of every element.
+	 * A stateful eager intermediate operation.
+	 * Keys are partitioned by their hash code.
+	 * @param keyFn Function returning the key of an element.
+	 * @param valueFn Function returning the value of an element, not NULL.
+	 * @param combiner Associative and commutative function combining two values.
+	 * @return Distributed Stream of entries, one per key, with the combined
+	 * value of all elements with that key.
+	 */
+	public <K, V> DistributedStream<Map.Entry<K, V>> distributeAndCombine(
+		Function<? super T, ? extends K> keyFn,
+		Function<? super T, ? extends V> valueFn, BinaryOperator<V> combiner);
+
+	/**
+	 * Groups data elements by key from nodes in the current compute group
+	 * to another compute group, combining the values of each key with the
+	 * specified function.
+	 * A stateful eager intermediate operation.
+	 * @param grp Destination compute group.
+	 * @param keyFn Function returning the key of an element.
+	 * @param valueFn Function returning the value of an element, not NULL.
+	 * @param combiner Associative and commutative function combining two values.
+	 * @return Distributed Stream of entries, one per key, with the combined
+	 * value of all elements with that key.
+	 * @see #distributeAndCombine(Function, Function, BinaryOperator)
+	 */
+	public <K, V> DistributedStream<Map.Entry<K, V>> distributeAndCombine(
+		ComputeGroup grp, Function<? super T, ? extends K> keyFn,
+		Function<? super T, ? extends V> valueFn, BinaryOperator<V> combiner);
+
+	/**
+	 * Groups data elements by key between nodes in the current compute
+	 * group, reducing the values of each key into a Distributed Map.
+	 * Values are reduced locally before being sent, and the partial results
+	 * are reduced into the map of the key's node as they arrive.
+	 * A terminal operation.
+	 * Keys are partitioned by their hash code.
+	 * @param keyFn Function returning the key of an element, not NULL.
+	 * @param valueFn Function returning the value of an element, not NULL.
+	 * @param reducer Associative and commutative function reducing two values.
+	 * @return Distributed Map holding the keys of this node's partition,
+	 * with the reduced value of all elements with each key.
+	 */
+	public <K, V> DistributedMap<K, V> reduceByKey(
+		Function<? super T, ? extends K> keyFn,
+		Function<? super T, ? extends V> valueFn, BinaryOperator<V> reducer);
+
+	/**
+	 * Groups data elements by key from nodes in the current compute group
+	 * to another compute group, reducing the values of each key into a
+	 * Distributed Map partitioned with the specified partitioner.
+	 * A terminal operation.
+	 * @param grp Destination compute group.
+	 * @param p Partitioner of the keys, recorded by the map.
+	 * @param keyFn Function returning the key of an element, not NULL.
+	 * @param valueFn Function returning the value of an element, not NULL.
+	 * @param reducer Associative and commutative function reducing two values.
+	 * @return Distributed Map holding the keys of this node's partition.
+	 * @see #reduceByKey(Function, Function, BinaryOperator)
+	 */
+	public <K, V> DistributedMap<K, V> reduceByKey(ComputeGroup grp,
+		Partitioner<? super K> p, Function<? super T, ? extends K> keyFn,
+		Function<? super T, ? extends V> valueFn, BinaryOperator<V> reducer);
+
+	/**
+	 * Groups data elements by key between nodes in the current compute
+	 * group, accumulating the elements of each key into a Distributed Map.
+	 * Elements are accumulated locally, starting from a new zero value per
+	 * key, and the partial results are combined into the map of the key's
+	 * node as they arrive.
+	 * A terminal operation.
+	 * Keys are partitioned by their hash code.
+	 * @param keyFn Function returning the key of an element, not NULL.
+	 * @param zero Function returning a new empty result.
+	 * @param accumulator Function adding an element to a result. May update
+	 * the result in place and return it.
+	 * @param combiner Associative and commutative function combining two
+	 * results. May update the first result in place and return it.
+	 * @return Distributed Map holding the keys of this node's partition,
+	 * with the result of accumulating all elements with each key.
+	 */
+	public <K, A> DistributedMap<K, A> aggregateByKey(
+		Function<? super T, ? extends K> keyFn, Supplier<A> zero,
+		BiFunction<A, ? super T, A> accumulator, BinaryOperator<A> combiner);
+
+	/**
+	 * Groups data elements by key from nodes in the current compute group
+	 * to another compute group, accumulating the elements of each key into
+	 * a Distributed Map partitioned with the specified partitioner.
+	 * A terminal operation.
+	 * @param grp Destination compute group.
+	 * @param p Partitioner of the keys, recorded by the map.
+	 * @param keyFn Function returning the key of an element, not NULL.
+	 * @param zero Function returning a new empty result.
+	 * @param accumulator Function adding an element to a result.
+	 * @param combiner Associative and commutative function combining two results.
+	 * @return Distributed Map holding the keys of this node's partition.
+	 * @see #aggregateByKey(Function, Supplier, BiFunction, BinaryOperator)
+	 */
+	public <K, A> DistributedMap<K, A> aggregateByKey(ComputeGroup grp,
+		Partitioner<? super K> p, Function<? super T, ? extends K> keyFn,
+		Supplier<A> zero, BiFunction<A, ? super T, A> accumulator,
+		BinaryOperator<A> combiner);
+
+	/**
+	 * Joins data elements with the elements of another stream that have
+	 * an equal key.
+	 * A small other stream is broadcast to all nodes; otherwise both
+	 * streams are shuffled by the hash code of their keys and joined with a
+	 * hash table of the other stream's elements on each node. The other
+	 * stream is consumed first.
+	 * A stateful eager intermediate operation.
+	 * @param other Stream to join with, in the same compute group.
+	 * @param keyFn Function returning the key of an element, not NULL.
+	 * @param otherKeyFn Function returning the key of an element of the
+	 * other stream, not NULL.
+	 * @param joiner Function combining two matching elements.
+	 * @return Distributed Stream with the result of joining each element
+	 * with each matching element of the other stream.
+	 */
+	public <U, K, R> DistributedStream<R> join(DistributedStream<U> other,
+		Function<? super T, ? extends K> keyFn,
+		Function<? super U, ? extends K> otherKeyFn,
+		BiFunction<? super T, ? super U, ? extends R> joiner);
+
+	/**
+	 * Joins data elements with the elements of another stream that have
+	 * an equal key, keeping elements without a match.
+	 * A stateful eager intermediate operation.
+	 * @param other Stream to join with, in the same compute group.
+	 * @param keyFn Function returning the key of an element, not NULL.
+	 * @param otherKeyFn Function returning the key of an element of the
+	 * other stream, not NULL.
+	 * @param joiner Function combining two matching elements, called with
+	 * NULL as second argument for elements without a match.
+	 * @return Distributed Stream with the joined elements.
+	 * @see #join(DistributedStream, Function, Function, BiFunction)
+	 */
+	public <U, K, R> DistributedStream<R> leftJoin(DistributedStream<U> other,
+		Function<? super T, ? extends K> keyFn,
+		Function<? super U, ? extends K> otherKeyFn,
+		BiFunction<? super T, ? super U, ? extends R> joiner);
+
+	/**
+	 * Joins data elements with the value of their key in a Distributed Map.
+	 * If the map records the partitioner of its keys (see
+	 * DistributedMap.getPartitioner()), only this stream is shuffled, to
+	 * the nodes holding its keys; a small map is broadcast instead.
+	 * A stateful eager intermediate operation.
+	 * @param map Map to join with, in the same compute group.
+	 * @param keyFn Function returning the key of an element, not NULL.
+	 * @param joiner Function combining an element with the value of its key.
+	 * @return Distributed Stream with the result of joining each element
+	 * whose key is in the map.
+	 */
+	public <K, V, R> DistributedStream<R> join(DistributedMap<K, V> map,
+		Function<? super T, ? extends K> keyFn,
+		BiFunction<? super T, ? super V, ? extends R> joiner);
+
+	/**
+	 * Joins data elements with the value of their key in a Distributed Map,
+	 * keeping elements whose key is not in the map.
+	 * A stateful eager intermediate operation.
+	 * @param map Map to join with, in the same compute group.
+	 * @param keyFn Function returning the key of an element, not NULL.
+	 * @param joiner Function combining an element with the value of its
+	 * key, called with NULL as second argument if the key is not in the map.
+	 * @return Distributed Stream with the joined elements.
+	 * @see #join(DistributedMap, Function, BiFunction)
+	 */
+	public <K, V, R> DistributedStream<R> leftJoin(DistributedMap<K, V> map,
+		Function<? super T, ? extends K> keyFn,
+		BiFunction<? super T, ? super V, ? extends R> joiner);
+
+	/**
+	 * Joins data elements with the elements of another stream that have
+	 * an equal key, by sorting both streams on their keys.
+	 * Unlike join(), neither stream has to fit in memory: both are
+	 * range-partitioned on their keys, sorted externally on each node and
+	 * merged. Only the elements of the other stream sharing a key need to
+	 * fit in memory. The joined elements come in key order on each node.
+	 * A stateful eager intermediate operation.
+	 * @param other Stream to join with, in the same compute group.
+	 * @param keyFn Function returning the key of an element.
+	 * @param otherKeyFn Function returning the key of an element of the
+	 * other stream.
+	 * @param keyComparator Function to compare two keys.
+	 * @param joiner Function combining two matching elements.
+	 * @return Distributed Stream with the result of joining each element
+	 * with each matching element of the other stream.
+	 */
+	public <U, K, R> DistributedStream<R> sortMergeJoin(DistributedStream<U> other,
+		Function<? super T, ? extends K> keyFn,
+		Function<? super U, ? extends K> otherKeyFn,
+		Comparator<? super K> keyComparator,
+		BiFunction<? super T, ? super U, ? extends R> joiner);
+
 	/**
 	 * Splits the current stream into multiple streams, with each
 	 * stream containing all elements of the current stream.
-	 * A stateful eager intermediate operation.
+	 * A stateful intermediate operation. The current stream is read once,
+	 * as the returned streams are consumed: elements that one of them has
+	 * not reached yet are buffered for it, spilling to disk beyond
+	 * dstream.split.buffer elements (default 65536). Elements must then be
+	 * Serializable, or the stream that has to spill them fails with an
+	 * IllegalStateException. Close the returned streams that are not
+	 * consumed, so that they stop buffering.
 	 * @param numStreams Number of streams to create.
 	 * @return Array of Distributed Streams.
 	 */
@@ -89,8 +310,9 @@ public interface DistributedStream<T> extends Stream<T>
 	 * Merges multiple streams into a single stream containing all
 	 * elements from the source streams.
 	 * The resulting stream's compute group is the union of all source
-	 * stream compute groups.
-	 * A stateful eager intermediate operation.
+	 * stream compute groups. The elements of the current stream come
+	 * first, then those of each stream in argument order.
+	 * A lazy intermediate operation.
 	 * @param streams Array or argument list of streams to merge.
 	 * @return A single Distributed Stream.
 	 */
@@ -310,7 +532,13 @@ public interface DistributedStream<T> extends Stream<T>
 
 	/**
 	 * Keeps only the specified number of elements in the Distributed Stream.
-	 * An intermediate operation.
+	 * Elements are ordered by the index of their node in the compute
+	 * group, then by their order in the local stream. Nodes read their
+	 * elements in rounds, exchanging counts after each one, and stop once
+	 * the nodes before them hold maxSize elements, or can no longer reach
+	 * it. Nodes with a known size do not read ahead. Elements read this way
+	 * are held in memory; the others are read lazily.
+	 * A stateful eager intermediate operation.
 	 * @param maxSize Maximum number of elements to keep.
 	 * @return Distributed Stream truncated to maxSize elements.
 	 */
@@ -381,9 +609,12 @@ public interface DistributedStream<T> extends Stream<T>
 	@Override public DistributedStream<T> sequential();
 
 	/**
-	 * Removes the first n elements in the Distributed Stream.
-	 * A stateful intermediate operation.
-	 * @param n Number of local elements to skip.
+	 * Removes the first n elements in the Distributed Stream, ordered as for
+	 * limit(). Nodes count the elements they are sure to skip, in group
+	 * order, until each knows how many of its elements to skip. Elements
+	 * are not held in memory.
+	 * A stateful eager intermediate operation.
+	 * @param n Number of elements to skip.
 	 * @return Distributed Stream with the elements removed.
 	 */
 	@Override public DistributedStream<T> skip(long n);
@@ -0,0 +1,70 @@
+package dstream;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends double values in batches per destination node, without boxing.
+ * The first element of each batch holds the sender's rank.
+ * Batches are received by DistributedDoubleSpliterator.
+ * @see dstream.DistributedDoubleSpliterator
+ */
+class DoubleBatchSender extends AbstractBatchSender<double[]>
+{
+	private static final double[] END = new double[0];
+
+	public DoubleBatchSender(ComputeGroup dst, int tag, int creditTag)
+	{
+		super(dst, tag, creditTag);
+	}
+
+	/**
+	 * Adds a value to the batch of the specified destination.
+	 * Thread-safe: can be called from a parallel forEach.
+	 * @param e Value to send.
+	 * @param index Index of the destination node in the destination group.
+	 */
+	public void add(double e, int index)
+	{
+		long now = System.nanoTime();
+		double[] full;
+		synchronized (lock[index])
+		{
+			batch(index)[position(index) + 1] = e;
+			full = added(index, now);
+		}
+		sent(full, index, now);
+	}
+
+	@Override
+	protected double[] newBatch()
+	{
+		return new double[BATCH + 1];
+	}
+
+	@Override
+	protected double[] trim(double[] batch, int n)
+	{
+		return Arrays.copyOf(batch, n + 1);
+	}
+
+	@Override
+	protected CompletableFuture<?> send(double[] batch, int rank)
+	{
+		batch[0] = ComputeNode.comm.getRank();
+		stats.sent(batch.length - 1, batch.length * 8, batch.length * 8);
+		return ComputeNode.comm.isendDoubleArray(batch, batch.length, rank, tag);
+	}
+
+	@Override
+	protected boolean recycle(double[] batch)
+	{
+		return batch.length == BATCH + 1;
+	}
+
+	@Override
+	protected CompletableFuture<?> sendEnd(int rank)
+	{
+		return ComputeNode.comm.isendDoubleArray(END, 0, rank, tag);
+	}
+}
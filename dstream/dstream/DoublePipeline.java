@@ -40,28 +40,25 @@ class DoublePipeline implements DistributedDoubleStream
 	@Override
 	public DistributedDoubleStream distribute()
 	{
-		return distribute(grp, d -> Double.valueOf(d).hashCode());
+		return distribute(grp, d -> Double.hashCode(d));
 	}
 
 	@Override
 	public DistributedDoubleStream distribute(DoublePartitioner p)
 	{
-		return distribute(ComputeGroup.getCluster());
+		return distribute(ComputeGroup.getCluster(), p);
 	}
 
 	@Override
 	public DistributedDoubleStream distribute(ComputeGroup grp)
 	{
-		return distribute(grp, d -> Double.valueOf(d).hashCode());
+		return distribute(grp, d -> Double.hashCode(d));
 	}
 
 	@Override
 	public DistributedDoubleStream distribute(ComputeGroup grp, DoublePartitioner p)
 	{
-		ReferencePipeline<Double> objs = new ReferencePipeline<Double>(s.mapToObj(n -> Double.valueOf(n)), grp);
-		return new DoublePipeline(
-			DistributeOps.<Double>distribute(objs, grp, n -> p.partition(n)).mapToDouble(n -> n),
-			grp);
+		return DistributeOps.distribute(this, grp, p);
 	}
 
 	@Override
@@ -204,7 +201,7 @@ class DoublePipeline implements DistributedDoubleStream
 	@Override
 	public DistributedDoubleStream limit(long maxSize)
 	{
-		return null; // TODO
+		return DistributeOps.limit(this, maxSize);
 	}
 
 	@Override
@@ -240,13 +237,13 @@ class DoublePipeline implements DistributedDoubleStream
 	@Override
 	public DistributedDoubleStream skip(long n)
 	{
-		return null; // TODO
+		return DistributeOps.skip(this, n);
 	}
 
 	@Override
 	public DistributedDoubleStream sorted()
 	{
-		return null; // TODO
+		return PrimitiveSortedOps.sorted(this);
 	}
 
 	// Stream operations
@@ -254,43 +251,48 @@ class DoublePipeline implements DistributedDoubleStream
 	@Override
 	public boolean allMatch(DoublePredicate predicate)
 	{
-		return s.allMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.allMatch(predicate) ? 1 : 0 }, Math::min)[0] != 0;
 	}
 
 	@Override
 	public boolean anyMatch(DoublePredicate predicate)
 	{
-		return s.anyMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.anyMatch(predicate) ? 1 : 0 }, Math::max)[0] != 0;
 	}
 
 	@Override
 	public OptionalDouble average()
 	{
-		return s.average(); // TODO
+		DoubleSummaryStatistics stats = summaryStatistics();
+		return (stats.getCount() > 0 ? OptionalDouble.of(stats.getAverage()) : OptionalDouble.empty());
 	}
 
 	@Override
 	public <R> R collect(Supplier<R> supplier, ObjDoubleConsumer<R> accumulator, BiConsumer<R,R> combiner)
 	{
-		return s.collect(supplier, accumulator, combiner); // TODO
+		return DistributeOps.combine(s.collect(supplier, accumulator, combiner), grp, combiner);
 	}
 
 	@Override
 	public long count()
 	{
-		return s.count(); // TODO
+		return grp.allreduce(new long[] { s.count() }, Long::sum)[0];
 	}
 
 	@Override
 	public OptionalDouble findAny()
 	{
-		return s.findAny(); // TODO
+		OptionalDouble result = s.findAny();
+		double[] v = DistributeOps.allreduce(new double[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) -> (a[0] != 0 ? a : b));
+		return (v[0] != 0 ? OptionalDouble.of(v[1]) : OptionalDouble.empty());
 	}
 
 	@Override
 	public OptionalDouble findFirst()
 	{
-		return s.findFirst(); // TODO
+		OptionalDouble result = s.findFirst();
+		double[] v = DistributeOps.allreduce(new double[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) -> (a[0] != 0 ? a : b));
+		return (v[0] != 0 ? OptionalDouble.of(v[1]) : OptionalDouble.empty());
 	}
 
 	@Override
@@ -308,49 +310,71 @@ class DoublePipeline implements DistributedDoubleStream
 	@Override
 	public OptionalDouble max()
 	{
-		return s.max(); // TODO
+		OptionalDouble result = s.max();
+		double[] v = grp.allreduce(new double[] { result.isPresent() ? 1 : 0, result.orElse(Double.NEGATIVE_INFINITY) }, Double::sum, Math::max);
+		return (v[0] != 0 ? OptionalDouble.of(v[1]) : OptionalDouble.empty());
 	}
 
 	@Override
 	public OptionalDouble min()
 	{
-		return s.min(); // TODO
+		OptionalDouble result = s.min();
+		double[] v = grp.allreduce(new double[] { result.isPresent() ? 1 : 0, result.orElse(Double.POSITIVE_INFINITY) }, Double::sum, Math::min);
+		return (v[0] != 0 ? OptionalDouble.of(v[1]) : OptionalDouble.empty());
 	}
 
 	@Override
 	public boolean noneMatch(DoublePredicate predicate)
 	{
-		return s.noneMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.noneMatch(predicate) ? 1 : 0 }, Math::min)[0] != 0;
 	}
 
 	@Override
 	public OptionalDouble reduce(DoubleBinaryOperator op)
 	{
-		return s.reduce(op); // TODO
+		OptionalDouble result = s.reduce(op);
+		double[] v = DistributeOps.allreduce(new double[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) ->
+		{
+			if (a[0] == 0)
+				return b;
+			if (b[0] != 0)
+				a[1] = op.applyAsDouble(a[1], b[1]);
+			return a;
+		});
+		return (v[0] != 0 ? OptionalDouble.of(v[1]) : OptionalDouble.empty());
 	}
 
 	@Override
 	public double reduce(double identity, DoubleBinaryOperator op)
 	{
-		return s.reduce(identity, op); // TODO
+		double[] v = DistributeOps.allreduce(new double[] { s.reduce(identity, op) }, grp, (a, b) ->
+		{
+			a[0] = op.applyAsDouble(a[0], b[0]);
+			return a;
+		});
+		return v[0];
 	}
 
 	@Override
 	public double sum()
 	{
-		return s.sum(); // TODO
+		return grp.allreduce(new double[] { s.sum() }, Double::sum)[0];
 	}
 
 	@Override
 	public DoubleSummaryStatistics summaryStatistics()
 	{
-		return s.summaryStatistics(); // TODO
+		DoubleSummaryStatistics stats = s.summaryStatistics();
+		// Count, sum and extremes in a single round
+		double[] v = grp.allreduce(new double[] { stats.getCount(), stats.getSum(), stats.getMin(), stats.getMax() },
+			Double::sum, Double::sum, Math::min, Math::max);
+		return Statistics.of((long) v[0], v[1], v[2], v[3]);
 	}
 
 	@Override
 	public double[] toArray()
 	{
-		return s.toArray(); // TODO
+		return DistributeOps.allreduce(s.toArray(), grp, DistributeOps::concat);
 	}
 
 	// BaseStream overrides
@@ -0,0 +1,70 @@
+package dstream;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends int values in batches per destination node, without boxing.
+ * The first element of each batch holds the sender's rank.
+ * Batches are received by DistributedIntSpliterator.
+ * @see dstream.DistributedIntSpliterator
+ */
+class IntBatchSender extends AbstractBatchSender<int[]>
+{
+	private static final int[] END = new int[0];
+
+	public IntBatchSender(ComputeGroup dst, int tag, int creditTag)
+	{
+		super(dst, tag, creditTag);
+	}
+
+	/**
+	 * Adds a value to the batch of the specified destination.
+	 * Thread-safe: can be called from a parallel forEach.
+	 * @param e Value to send.
+	 * @param index Index of the destination node in the destination group.
+	 */
+	public void add(int e, int index)
+	{
+		long now = System.nanoTime();
+		int[] full;
+		synchronized (lock[index])
+		{
+			batch(index)[position(index) + 1] = e;
+			full = added(index, now);
+		}
+		sent(full, index, now);
+	}
+
+	@Override
+	protected int[] newBatch()
+	{
+		return new int[BATCH + 1];
+	}
+
+	@Override
+	protected int[] trim(int[] batch, int n)
+	{
+		return Arrays.copyOf(batch, n + 1);
+	}
+
+	@Override
+	protected CompletableFuture<?> send(int[] batch, int rank)
+	{
+		batch[0] = ComputeNode.comm.getRank();
+		stats.sent(batch.length - 1, batch.length * 4, batch.length * 4);
+		return ComputeNode.comm.isendIntArray(batch, batch.length, rank, tag);
+	}
+
+	@Override
+	protected boolean recycle(int[] batch)
+	{
+		return batch.length == BATCH + 1;
+	}
+
+	@Override
+	protected CompletableFuture<?> sendEnd(int rank)
+	{
+		return ComputeNode.comm.isendIntArray(END, 0, rank, tag);
+	}
+}
@@ -40,28 +40,25 @@ class IntPipeline implements DistributedIntStream
 	@Override
 	public DistributedIntStream distribute()
 	{
-		return distribute(grp, d -> Integer.valueOf(d).hashCode());
+		return distribute(grp, d -> Integer.hashCode(d));
 	}
 
 	@Override
 	public DistributedIntStream distribute(IntPartitioner p)
 	{
-		return distribute(ComputeGroup.getCluster());
+		return distribute(ComputeGroup.getCluster(), p);
 	}
 
 	@Override
 	public DistributedIntStream distribute(ComputeGroup grp)
 	{
-		return distribute(grp, d -> Integer.valueOf(d).hashCode());
+		return distribute(grp, d -> Integer.hashCode(d));
 	}
 
 	@Override
 	public DistributedIntStream distribute(ComputeGroup grp, IntPartitioner p)
 	{
-		ReferencePipeline<Integer> objs = new ReferencePipeline<Integer>(s.mapToObj(n -> Integer.valueOf(n)), grp);
-		return new IntPipeline(
-			DistributeOps.<Integer>distribute(objs, grp, n -> p.partition(n)).mapToInt(n -> n),
-			grp);
+		return DistributeOps.distribute(this, grp, p);
 	}
 
 	@Override
@@ -216,7 +213,7 @@ class IntPipeline implements DistributedIntStream
 	@Override
 	public DistributedIntStream limit(long maxSize)
 	{
-		return null; // TODO
+		return DistributeOps.limit(this, maxSize);
 	}
 
 	@Override
@@ -252,13 +249,13 @@ class IntPipeline implements DistributedIntStream
 	@Override
 	public DistributedIntStream skip(long n)
 	{
-		return null; // TODO
+		return DistributeOps.skip(this, n);
 	}
 
 	@Override
 	public DistributedIntStream sorted()
 	{
-		return null; // TODO
+		return PrimitiveSortedOps.sorted(this);
 	}
 
 	// Stream operations
@@ -266,43 +263,48 @@ class IntPipeline implements DistributedIntStream
 	@Override
 	public boolean allMatch(IntPredicate predicate)
 	{
-		return s.allMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.allMatch(predicate) ? 1 : 0 }, Math::min)[0] != 0;
 	}
 
 	@Override
 	public boolean anyMatch(IntPredicate predicate)
 	{
-		return s.anyMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.anyMatch(predicate) ? 1 : 0 }, Math::max)[0] != 0;
 	}
 
 	@Override
 	public OptionalDouble average()
 	{
-		return s.average(); // TODO
+		IntSummaryStatistics stats = summaryStatistics();
+		return (stats.getCount() > 0 ? OptionalDouble.of(stats.getAverage()) : OptionalDouble.empty());
 	}
 
 	@Override
 	public <R> R collect(Supplier<R> supplier, ObjIntConsumer<R> accumulator, BiConsumer<R,R> combiner)
 	{
-		return s.collect(supplier, accumulator, combiner); // TODO
+		return DistributeOps.combine(s.collect(supplier, accumulator, combiner), grp, combiner);
 	}
 
 	@Override
 	public long count()
 	{
-		return s.count(); // TODO
+		return grp.allreduce(new long[] { s.count() }, Long::sum)[0];
 	}
 
 	@Override
 	public OptionalInt findAny()
 	{
-		return s.findAny(); // TODO
+		OptionalInt result = s.findAny();
+		long[] v = DistributeOps.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) -> (a[0] != 0 ? a : b));
+		return (v[0] != 0 ? OptionalInt.of((int) v[1]) : OptionalInt.empty());
 	}
 
 	@Override
 	public OptionalInt findFirst()
 	{
-		return s.findFirst(); // TODO
+		OptionalInt result = s.findFirst();
+		long[] v = DistributeOps.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) -> (a[0] != 0 ? a : b));
+		return (v[0] != 0 ? OptionalInt.of((int) v[1]) : OptionalInt.empty());
 	}
 
 	@Override
@@ -320,49 +322,77 @@ class IntPipeline implements DistributedIntStream
 	@Override
 	public OptionalInt max()
 	{
-		return s.max(); // TODO
+		OptionalInt result = s.max();
+		long[] v = grp.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(Integer.MIN_VALUE) }, Long::sum, Math::max);
+		return (v[0] != 0 ? OptionalInt.of((int) v[1]) : OptionalInt.empty());
 	}
 
 	@Override
 	public OptionalInt min()
 	{
-		return s.min(); // TODO
+		OptionalInt result = s.min();
+		long[] v = grp.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(Integer.MAX_VALUE) }, Long::sum, Math::min);
+		return (v[0] != 0 ? OptionalInt.of((int) v[1]) : OptionalInt.empty());
 	}
 
 	@Override
 	public boolean noneMatch(IntPredicate predicate)
 	{
-		return s.noneMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.noneMatch(predicate) ? 1 : 0 }, Math::min)[0] != 0;
 	}
 
 	@Override
 	public OptionalInt reduce(IntBinaryOperator op)
 	{
-		return s.reduce(op); // TODO
+		OptionalInt result = s.reduce(op);
+		long[] v = DistributeOps.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) ->
+		{
+			if (a[0] == 0)
+				return b;
+			if (b[0] != 0)
+				a[1] = op.applyAsInt((int) a[1], (int) b[1]);
+			return a;
+		});
+		return (v[0] != 0 ? OptionalInt.of((int) v[1]) : OptionalInt.empty());
 	}
 
 	@Override
 	public int reduce(int identity, IntBinaryOperator op)
 	{
-		return s.reduce(identity, op); // TODO
+		long[] v = DistributeOps.allreduce(new long[] { s.reduce(identity, op) }, grp, (a, b) ->
+		{
+			a[0] = op.applyAsInt((int) a[0], (int) b[0]);
+			return a;
+		});
+		return (int) v[0];
 	}
 
 	@Override
 	public int sum()
 	{
-		return s.sum(); // TODO
+		return (int) grp.allreduce(new long[] { s.sum() }, Long::sum)[0];
 	}
 
 	@Override
 	public IntSummaryStatistics summaryStatistics()
 	{
-		return s.summaryStatistics(); // TODO
+		IntSummaryStatistics stats = s.summaryStatistics();
+		// Count, sum and extremes in a single round
+		long[] v = grp.allreduce(new long[] { stats.getCount(), stats.getSum(), stats.getMin(), stats.getMax() },
+			Long::sum, Long::sum, Math::min, Math::max);
+		return Statistics.of(v[0], v[1], (int) v[2], (int) v[3]);
 	}
 
 	@Override
 	public int[] toArray()
 	{
-		return s.toArray(); // TODO
+		// Gathered as long integers, to send arrays of primitives
+		long[] all = s.asLongStream().toArray();
+		all = DistributeOps.allreduce(all, grp, DistributeOps::concat);
+		int[] result = new int[all.length];
+		for (int i = 0; i < all.length; i++)
+			result[i] = (int) all[i];
+		return result;
 	}
 
 	// BaseStream overrides
@@ -0,0 +1,94 @@
+package dstream;
+
+import dstream.util.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * Equi-joins of a stream with another stream or with a Distributed Map.
+ * The other side is the build side: its elements are indexed by key in a
+ * hash table, which the elements of the stream then probe. If the build
+ * side holds at most dstream.join.broadcast elements in total (default
+ * 65536), it is broadcast to every node and the stream is joined where it
+ * is. Otherwise both sides are shuffled by the hash code of their keys,
+ * unless the build side is a Distributed Map recording the partitioner of
+ * its keys, in which case only the stream is shuffled, to the nodes
+ * holding its keys.
+ * Keys must not be NULL.
+ */
+class JoinOps
+{
+	private static final long BROADCAST = Long.getLong("dstream.join.broadcast", 1 << 16);
+
+	private JoinOps() { } // Do not instantiate
+
+	/**
+	 * Joins a stream with another stream.
+	 * @param outer True to keep elements of the stream without a match,
+	 * joined with NULL.
+	 */
+	public static <T, U, K, R> DistributedStream<R> join(ReferencePipeline<T> upstream, DistributedStream<U> other,
+		Function<? super T, ? extends K> keyFn, Function<? super U, ? extends K> otherKeyFn,
+		BiFunction<? super T, ? super U, ? extends R> joiner, boolean outer)
+	{
+		final ComputeGroup grp = upstream.grp;
+		// The total size of the build side decides on the strategy
+		List<U> local = other.localCollect(Collectors.toList());
+		long total = DistributeOps.reduce((long) local.size(), grp, Long::sum);
+		ReferencePipeline<U> build = new ReferencePipeline<U>(local.parallelStream(), grp);
+		if (total <= BROADCAST)
+		{
+			Map<K, List<U>> table = index(DistributeOps.broadcast(build), otherKeyFn);
+			return probe(upstream, keyFn, k -> table.get(k), joiner, outer);
+		}
+		Map<K, List<U>> table = index(build.distribute(grp, u -> otherKeyFn.apply(u).hashCode()), otherKeyFn);
+		DistributedStream<T> probe = upstream.distribute(grp, t -> keyFn.apply(t).hashCode());
+		return probe(probe, keyFn, k -> table.get(k), joiner, outer);
+	}
+
+	/**
+	 * Joins a stream with the entries of a Distributed Map.
+	 * @param outer True to keep elements of the stream without a match,
+	 * joined with NULL.
+	 */
+	public static <T, K, V, R> DistributedStream<R> join(ReferencePipeline<T> upstream, DistributedMap<K, V> map,
+		Function<? super T, ? extends K> keyFn, BiFunction<? super T, ? super V, ? extends R> joiner, boolean outer)
+	{
+		Partitioner<? super K> p = map.getPartitioner();
+		if (p != null && map.getComputeGroup().equals(upstream.grp)
+			&& DistributeOps.reduce((long) map.size(), upstream.grp, Long::sum) > BROADCAST)
+		{
+			// Co-partitioned: send each element to the node holding its key
+			DistributedStream<T> probe = upstream.distribute(upstream.grp, t -> p.partition(keyFn.apply(t)));
+			return probe(probe, keyFn, k ->
+			{
+				V v = map.get(k);
+				return (v != null || map.containsKey(k) ? Collections.singletonList(v) : null);
+			}, joiner, outer);
+		}
+		DistributedStream<Map.Entry<K, V>> entries = map.entrySet().parallelStream()
+			.map(e -> new AbstractMap.SimpleEntry<K, V>(e)); // Map.Entry is not serialisable
+		return join(upstream, entries, keyFn, e -> e.getKey(), (t, e) -> joiner.apply(t, (e != null ? e.getValue() : null)), outer);
+	}
+
+	// Builds a hash table of the local elements of a stream by key
+	private static <U, K> Map<K, List<U>> index(DistributedStream<U> s, Function<? super U, ? extends K> keyFn)
+	{
+		return s.localCollect(Collectors.groupingByConcurrent(keyFn));
+	}
+
+	// Joins each element of a stream with the matches returned by lookup, or NULL if none
+	private static <T, U, K, R> DistributedStream<R> probe(DistributedStream<T> s, Function<? super T, ? extends K> keyFn,
+		Function<K, List<U>> lookup, BiFunction<? super T, ? super U, ? extends R> joiner, boolean outer)
+	{
+		return s.flatMap(t ->
+		{
+			List<U> matches = lookup.apply(keyFn.apply(t));
+			if (matches == null)
+				return (outer ? Stream.of(joiner.apply(t, null)) : Stream.empty());
+			return matches.stream().map(u -> joiner.apply(t, u));
+		});
+	}
+}
@@ -0,0 +1,459 @@
+package dstream;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * In-process communicator implementation.
+ * Runs every rank of the cluster within a single JVM, e.g. to use all cores
+ * of one machine or to test a program without starting several processes:
+ *   dstream.comm=local
+ *   dstream.ranks=N (number of ranks, defaults to 2)
+ * Each rank runs the program on its own ForkJoinPool, so parallel streams
+ * of a rank are evaluated by the threads of that rank. The pools share the
+ * available cores between them.
+ * Senders hand messages over to the receives waiting in the mailbox of
+ * their tag, or queue them there. Non-blocking receives wait in the mailbox
+ * too, so they hold no thread, and are completed on the executor() of
+ * their rank. Arrays are copied, but objects are passed by reference
+ * instead of being serialised, so a sent object must not be modified by
+ * the sender afterwards.
+ */
+public class LocalCommunicator extends Communicator
+{
+	private static final int RANKS = Integer.getInteger("dstream.ranks", 2);
+	private static final int ANY_SOURCE = -1;
+
+	private Rank[] ranks;
+	private final InheritableThreadLocal<Rank> current = new InheritableThreadLocal<>();
+
+	private static final class Rank
+	{
+		final int rank;
+		final ConcurrentHashMap<Integer, Mailbox> mailboxes = new ConcurrentHashMap<>();
+		ForkJoinPool pool;
+
+		Rank(int rank)
+		{
+			this.rank = rank;
+		}
+	}
+
+	private static final class Message
+	{
+		final int src;
+		final Object data;
+
+		Message(int src, Object data)
+		{
+			this.src = src;
+			this.data = data;
+		}
+	}
+
+	// Receive started before its message arrived
+	private static final class Receive
+	{
+		final int src;
+		final CompletableFuture<Message> done = new CompletableFuture<>();
+
+		Receive(int src)
+		{
+			this.src = src;
+		}
+	}
+
+	/**
+	 * Messages of one tag for one rank that have not been received yet, and
+	 * receives of that tag still waiting for a message. At most one of them
+	 * is non-empty for any given source.
+	 */
+	private static final class Mailbox
+	{
+		final LinkedList<Message> q = new LinkedList<>();
+		final LinkedList<Receive> waiting = new LinkedList<>();
+		boolean dead = false; // Removed from the map, must not be used
+
+		boolean isEmpty()
+		{
+			return q.isEmpty() && waiting.isEmpty();
+		}
+	}
+
+	private final class Worker extends ForkJoinWorkerThread
+	{
+		private final Rank r;
+
+		Worker(ForkJoinPool pool, Rank r)
+		{
+			super(pool);
+			this.r = r;
+		}
+
+		@Override
+		protected void onStart()
+		{
+			super.onStart();
+			current.set(r);
+		}
+	}
+
+	public String[] init(String[] argv)
+	{
+		if (RANKS < 1)
+			throw new IllegalArgumentException("LocalCommunicator: Invalid number of ranks " + RANKS);
+		int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / RANKS);
+		ranks = new Rank[RANKS];
+		for (int i = 0; i < RANKS; i++)
+		{
+			Rank r = new Rank(i);
+			r.pool = new ForkJoinPool(parallelism, pool -> new Worker(pool, r), null, true);
+			ranks[i] = r;
+		}
+		return argv;
+	}
+
+	@Override
+	public void execute(Runnable program)
+	{
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(ranks.length);
+		for (Rank r: ranks)
+			tasks.add(r.pool.submit(program));
+		try
+		{
+			for (ForkJoinTask<?> t: tasks)
+				t.get();
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	@Override
+	public Runnable bind(Runnable task)
+	{
+		return bind(self(), task);
+	}
+
+	private Runnable bind(Rank r, Runnable task)
+	{
+		return () ->
+		{
+			current.set(r);
+			r.pool.invoke(ForkJoinTask.adapt(task));
+		};
+	}
+
+	@Override
+	public Executor executor()
+	{
+		Rank r = self();
+		return task -> CommExecutor.get().execute(bind(r, task));
+	}
+
+	@Override
+	public boolean passesReferences()
+	{
+		return true;
+	}
+
+	public void cleanup()
+	{
+		for (Rank r: ranks)
+			r.pool.shutdown();
+	}
+
+	private Rank self()
+	{
+		Rank r = current.get();
+		if (r == null)
+			throw new IllegalStateException("LocalCommunicator: Thread not bound to a rank");
+		return r;
+	}
+
+	public int getRank()
+	{
+		return self().rank;
+	}
+
+	public int getSize()
+	{
+		return ranks.length;
+	}
+
+	// Returns the size of the data of a message, or 0 for an object
+	private static long size(Object data)
+	{
+		if (data instanceof byte[])
+			return ((byte[]) data).length;
+		if (data instanceof int[])
+			return ((int[]) data).length * 4L;
+		if (data instanceof long[])
+			return ((long[]) data).length * 8L;
+		if (data instanceof double[])
+			return ((double[]) data).length * 8L;
+		return 0;
+	}
+
+	// Hands a message to the first receive of the destination waiting for its source, or queues it
+	private void deliver(Object data, int dst, int tag)
+	{
+		CommMetrics.sent(dst, tag, size(data));
+		Message msg = new Message(self().rank, data);
+		Map<Integer, Mailbox> mailboxes = ranks[dst].mailboxes;
+		Receive r = null;
+		while (true)
+		{
+			Mailbox m = mailboxes.computeIfAbsent(tag, t -> new Mailbox());
+			synchronized (m)
+			{
+				if (m.dead)
+					continue;
+				for (Iterator<Receive> it = m.waiting.iterator(); it.hasNext(); )
+				{
+					Receive w = it.next();
+					if (w.src == ANY_SOURCE || w.src == msg.src)
+					{
+						it.remove();
+						r = w;
+						break;
+					}
+				}
+				if (r == null)
+					m.q.add(msg);
+				else if (m.isEmpty())
+				{
+					m.dead = true;
+					mailboxes.remove(tag, m);
+				}
+			}
+			break;
+		}
+		// Actions chained to the receive run on the receiving rank's executor (see irecv())
+		if (r != null)
+			r.done.complete(msg);
+	}
+
+	// Starts a receive, taking a queued message if there is one
+	private CompletableFuture<Message> receive(int src, int tag)
+	{
+		Map<Integer, Mailbox> mailboxes = self().mailboxes;
+		while (true)
+		{
+			Mailbox m = mailboxes.computeIfAbsent(tag, t -> new Mailbox());
+			synchronized (m)
+			{
+				if (m.dead)
+					continue;
+				for (Iterator<Message> it = m.q.iterator(); it.hasNext(); )
+				{
+					Message msg = it.next();
+					if (src == ANY_SOURCE || msg.src == src)
+					{
+						it.remove();
+						CommMetrics.received(msg.src, tag, size(msg.data), m.q.size());
+						// Remove mailboxes of finished operations
+						if (m.isEmpty())
+						{
+							m.dead = true;
+							mailboxes.remove(tag, m);
+						}
+						return CompletableFuture.completedFuture(msg);
+					}
+				}
+				Receive r = new Receive(src);
+				m.waiting.add(r);
+				return r.done;
+			}
+		}
+	}
+
+	/**
+	 * Waits for a message. Joining the future lets the rank's pool start
+	 * another worker while the current one is blocked.
+	 */
+	private Message take(int src, int tag)
+	{
+		CompletableFuture<Message> f = receive(src, tag);
+		if (f.isDone())
+			return f.join();
+		long start = System.nanoTime();
+		Message msg = f.join();
+		CommMetrics.waited(tag, System.nanoTime() - start);
+		// Metrics are those of the bound rank, so the sender could not record the message
+		CommMetrics.received(msg.src, tag, size(msg.data), 0);
+		return msg;
+	}
+
+	// Starts a receive whose data is passed on once it arrives, on the receiving rank's executor
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> irecv(int src, int tag)
+	{
+		CompletableFuture<Message> f = receive(src, tag);
+		boolean taken = f.isDone(); // Already recorded by receive()
+		return decode(f, msg ->
+		{
+			if (!taken)
+				CommMetrics.received(msg.src, tag, size(msg.data), 0);
+			return (T) msg.data;
+		});
+	}
+
+	public void sendObject(Object obj, int dst, int tag)
+	{
+		deliver(obj, dst, tag);
+	}
+
+	public Object recvObject(int tag)
+	{
+		return take(ANY_SOURCE, tag).data;
+	}
+
+	public int recvObject(Object[] obj, int tag)
+	{
+		Message msg = take(ANY_SOURCE, tag);
+		obj[0] = msg.data;
+		return msg.src;
+	}
+
+	public Object recvObject(int src, int tag)
+	{
+		return take(src, tag).data;
+	}
+
+	public void sendInt(int n, int dst, int tag)
+	{
+		deliver(n, dst, tag);
+	}
+
+	public int recvInt(int src, int tag)
+	{
+		return (Integer) take(src, tag).data;
+	}
+
+	public void sendByteArray(byte[] buf, int count, int dst, int tag)
+	{
+		deliver(Arrays.copyOf(buf, count), dst, tag);
+	}
+
+	public byte[] recvByteArray(int tag)
+	{
+		return (byte[]) take(ANY_SOURCE, tag).data;
+	}
+
+	public void sendIntArray(int[] buf, int count, int dst, int tag)
+	{
+		deliver(Arrays.copyOf(buf, count), dst, tag);
+	}
+
+	public int[] recvIntArray(int tag)
+	{
+		return (int[]) take(ANY_SOURCE, tag).data;
+	}
+
+	public void sendLongArray(long[] buf, int count, int dst, int tag)
+	{
+		deliver(Arrays.copyOf(buf, count), dst, tag);
+	}
+
+	public long[] recvLongArray(int tag)
+	{
+		return (long[]) take(ANY_SOURCE, tag).data;
+	}
+
+	public long[] recvLongArray(int src, int tag)
+	{
+		return (long[]) take(src, tag).data;
+	}
+
+	public void sendDoubleArray(double[] buf, int count, int dst, int tag)
+	{
+		deliver(Arrays.copyOf(buf, count), dst, tag);
+	}
+
+	public double[] recvDoubleArray(int tag)
+	{
+		return (double[]) take(ANY_SOURCE, tag).data;
+	}
+
+	public double[] recvDoubleArray(int src, int tag)
+	{
+		return (double[]) take(src, tag).data;
+	}
+
+	// Sends never block, so they complete immediately
+	private static final CompletableFuture<Void> SENT = CompletableFuture.completedFuture(null);
+
+	@Override
+	public CompletableFuture<Void> isendObject(Object obj, int dst, int tag)
+	{
+		sendObject(obj, dst, tag);
+		return SENT;
+	}
+
+	@Override
+	public CompletableFuture<Void> isendByteArray(byte[] buf, int count, int dst, int tag)
+	{
+		sendByteArray(buf, count, dst, tag);
+		return SENT;
+	}
+
+	@Override
+	public CompletableFuture<Void> isendIntArray(int[] buf, int count, int dst, int tag)
+	{
+		sendIntArray(buf, count, dst, tag);
+		return SENT;
+	}
+
+	@Override
+	public CompletableFuture<Void> isendLongArray(long[] buf, int count, int dst, int tag)
+	{
+		sendLongArray(buf, count, dst, tag);
+		return SENT;
+	}
+
+	@Override
+	public CompletableFuture<Void> isendDoubleArray(double[] buf, int count, int dst, int tag)
+	{
+		sendDoubleArray(buf, count, dst, tag);
+		return SENT;
+	}
+
+	@Override
+	public CompletableFuture<Object> irecvObject(int tag)
+	{
+		return irecv(ANY_SOURCE, tag);
+	}
+
+	@Override
+	public CompletableFuture<Integer> irecvInt(int src, int tag)
+	{
+		return irecv(src, tag);
+	}
+
+	@Override
+	public CompletableFuture<byte[]> irecvByteArray(int tag)
+	{
+		return irecv(ANY_SOURCE, tag);
+	}
+
+	@Override
+	public CompletableFuture<int[]> irecvIntArray(int tag)
+	{
+		return irecv(ANY_SOURCE, tag);
+	}
+
+	@Override
+	public CompletableFuture<long[]> irecvLongArray(int tag)
+	{
+		return irecv(ANY_SOURCE, tag);
+	}
+
+	@Override
+	public CompletableFuture<double[]> irecvDoubleArray(int tag)
+	{
+		return irecv(ANY_SOURCE, tag);
+	}
+}
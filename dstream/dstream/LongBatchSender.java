@@ -0,0 +1,70 @@
+package dstream;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends long values in batches per destination node, without boxing.
+ * The first element of each batch holds the sender's rank.
+ * Batches are received by DistributedLongSpliterator.
+ * @see dstream.DistributedLongSpliterator
+ */
+class LongBatchSender extends AbstractBatchSender<long[]>
+{
+	private static final long[] END = new long[0];
+
+	public LongBatchSender(ComputeGroup dst, int tag, int creditTag)
+	{
+		super(dst, tag, creditTag);
+	}
+
+	/**
+	 * Adds a value to the batch of the specified destination.
+	 * Thread-safe: can be called from a parallel forEach.
+	 * @param e Value to send.
+	 * @param index Index of the destination node in the destination group.
+	 */
+	public void add(long e, int index)
+	{
+		long now = System.nanoTime();
+		long[] full;
+		synchronized (lock[index])
+		{
+			batch(index)[position(index) + 1] = e;
+			full = added(index, now);
+		}
+		sent(full, index, now);
+	}
+
+	@Override
+	protected long[] newBatch()
+	{
+		return new long[BATCH + 1];
+	}
+
+	@Override
+	protected long[] trim(long[] batch, int n)
+	{
+		return Arrays.copyOf(batch, n + 1);
+	}
+
+	@Override
+	protected CompletableFuture<?> send(long[] batch, int rank)
+	{
+		batch[0] = ComputeNode.comm.getRank();
+		stats.sent(batch.length - 1, batch.length * 8, batch.length * 8);
+		return ComputeNode.comm.isendLongArray(batch, batch.length, rank, tag);
+	}
+
+	@Override
+	protected boolean recycle(long[] batch)
+	{
+		return batch.length == BATCH + 1;
+	}
+
+	@Override
+	protected CompletableFuture<?> sendEnd(int rank)
+	{
+		return ComputeNode.comm.isendLongArray(END, 0, rank, tag);
+	}
+}
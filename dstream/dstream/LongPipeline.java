@@ -58,28 +58,25 @@ class LongPipeline implements DistributedLongStream
 	@Override
 	public DistributedLongStream distribute()
 	{
-		return distribute(grp, d -> Long.valueOf(d).hashCode());
+		return distribute(grp, d -> Long.hashCode(d));
 	}
 
 	@Override
 	public DistributedLongStream distribute(LongPartitioner p)
 	{
-		return distribute(ComputeGroup.getCluster());
+		return distribute(ComputeGroup.getCluster(), p);
 	}
 
 	@Override
 	public DistributedLongStream distribute(ComputeGroup grp)
 	{
-		return distribute(grp, d -> Long.valueOf(d).hashCode());
+		return distribute(grp, d -> Long.hashCode(d));
 	}
 
 	@Override
 	public DistributedLongStream distribute(ComputeGroup grp, LongPartitioner p)
 	{
-		ReferencePipeline<Long> objs = new ReferencePipeline<Long>(s.mapToObj(n -> Long.valueOf(n)), grp);
-		return new LongPipeline(
-			DistributeOps.<Long>distribute(objs, grp, n -> p.partition(n)).mapToLong(n -> n),
-			grp);
+		return DistributeOps.distribute(this, grp, p);
 	}
 
 	@Override
@@ -240,7 +237,7 @@ class LongPipeline implements DistributedLongStream
 	@Override
 	public DistributedLongStream limit(long maxSize)
 	{
-		return null; // TODO
+		return DistributeOps.limit(this, maxSize);
 	}
 
 	@Override
@@ -276,13 +273,13 @@ class LongPipeline implements DistributedLongStream
 	@Override
 	public DistributedLongStream skip(long n)
 	{
-		return null; // TODO
+		return DistributeOps.skip(this, n);
 	}
 
 	@Override
 	public DistributedLongStream sorted()
 	{
-		return null; // TODO
+		return PrimitiveSortedOps.sorted(this);
 	}
 
 	// Stream operations
@@ -290,43 +287,48 @@ class LongPipeline implements DistributedLongStream
 	@Override
 	public boolean allMatch(LongPredicate predicate)
 	{
-		return s.allMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.allMatch(predicate) ? 1 : 0 }, Math::min)[0] != 0;
 	}
 
 	@Override
 	public boolean anyMatch(LongPredicate predicate)
 	{
-		return s.anyMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.anyMatch(predicate) ? 1 : 0 }, Math::max)[0] != 0;
 	}
 
 	@Override
 	public OptionalDouble average()
 	{
-		return s.average(); // TODO
+		LongSummaryStatistics stats = summaryStatistics();
+		return (stats.getCount() > 0 ? OptionalDouble.of(stats.getAverage()) : OptionalDouble.empty());
 	}
 
 	@Override
 	public <R> R collect(Supplier<R> supplier, ObjLongConsumer<R> accumulator, BiConsumer<R,R> combiner)
 	{
-		return s.collect(supplier, accumulator, combiner); // TODO
+		return DistributeOps.combine(s.collect(supplier, accumulator, combiner), grp, combiner);
 	}
 
 	@Override
 	public long count()
 	{
-		return s.count(); // TODO
+		return grp.allreduce(new long[] { s.count() }, Long::sum)[0];
 	}
 
 	@Override
 	public OptionalLong findAny()
 	{
-		return s.findAny(); // TODO
+		OptionalLong result = s.findAny();
+		long[] v = DistributeOps.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) -> (a[0] != 0 ? a : b));
+		return (v[0] != 0 ? OptionalLong.of(v[1]) : OptionalLong.empty());
 	}
 
 	@Override
 	public OptionalLong findFirst()
 	{
-		return s.findFirst(); // TODO
+		OptionalLong result = s.findFirst();
+		long[] v = DistributeOps.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) -> (a[0] != 0 ? a : b));
+		return (v[0] != 0 ? OptionalLong.of(v[1]) : OptionalLong.empty());
 	}
 
 	@Override
@@ -344,49 +346,71 @@ class LongPipeline implements DistributedLongStream
 	@Override
 	public OptionalLong max()
 	{
-		return s.max(); // TODO
+		OptionalLong result = s.max();
+		long[] v = grp.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(Long.MIN_VALUE) }, Long::sum, Math::max);
+		return (v[0] != 0 ? OptionalLong.of(v[1]) : OptionalLong.empty());
 	}
 
 	@Override
 	public OptionalLong min()
 	{
-		return s.min(); // TODO
+		OptionalLong result = s.min();
+		long[] v = grp.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(Long.MAX_VALUE) }, Long::sum, Math::min);
+		return (v[0] != 0 ? OptionalLong.of(v[1]) : OptionalLong.empty());
 	}
 
 	@Override
 	public boolean noneMatch(LongPredicate predicate)
 	{
-		return s.noneMatch(predicate); // TODO
+		return grp.allreduce(new long[] { s.noneMatch(predicate) ? 1 : 0 }, Math::min)[0] != 0;
 	}
 
 	@Override
 	public OptionalLong reduce(LongBinaryOperator op)
 	{
-		return s.reduce(op); // TODO
+		OptionalLong result = s.reduce(op);
+		long[] v = DistributeOps.allreduce(new long[] { result.isPresent() ? 1 : 0, result.orElse(0) }, grp, (a, b) ->
+		{
+			if (a[0] == 0)
+				return b;
+			if (b[0] != 0)
+				a[1] = op.applyAsLong(a[1], b[1]);
+			return a;
+		});
+		return (v[0] != 0 ? OptionalLong.of(v[1]) : OptionalLong.empty());
 	}
 
 	@Override
 	public long reduce(long identity, LongBinaryOperator op)
 	{
-		return s.reduce(identity, op); // TODO
+		long[] v = DistributeOps.allreduce(new long[] { s.reduce(identity, op) }, grp, (a, b) ->
+		{
+			a[0] = op.applyAsLong(a[0], b[0]);
+			return a;
+		});
+		return v[0];
 	}
 
 	@Override
 	public long sum()
 	{
-		return s.sum(); // TODO
+		return grp.allreduce(new long[] { s.sum() }, Long::sum)[0];
 	}
 
 	@Override
 	public LongSummaryStatistics summaryStatistics()
 	{
-		return s.summaryStatistics(); // TODO
+		LongSummaryStatistics stats = s.summaryStatistics();
+		// Count, sum and extremes in a single round
+		long[] v = grp.allreduce(new long[] { stats.getCount(), stats.getSum(), stats.getMin(), stats.getMax() },
+			Long::sum, Long::sum, Math::min, Math::max);
+		return Statistics.of(v[0], v[1], v[2], v[3]);
 	}
 
 	@Override
 	public long[] toArray()
 	{
-		return s.toArray(); // TODO
+		return DistributeOps.allreduce(s.toArray(), grp, DistributeOps::concat);
 	}
 
 	// BaseStream overrides
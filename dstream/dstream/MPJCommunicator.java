@@ -1,19 +1,119 @@
 package dstream;
 
 import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 
 import mpi.*;
 
 /**
  * MPJ Express communicator implementation.
+ * A single progress thread owns the MPJ communicator: other threads never
+ * call MPJ, but queue their sends and wait for their receives. The progress
+ * thread starts the queued sends with Isend, tests the outstanding ones,
+ * and probes for incoming messages of any tag, which it receives and hands
+ * over to the mailbox of their tag. Receives take messages from the
+ * mailboxes, or wait there for the progress thread to deliver them.
+ * Every message travels as an array of bytes, so that the progress thread
+ * can receive it before knowing its type.
+ * Futures of non-blocking operations are completed by the progress thread,
+ * so actions chained to them must not block, and any real work chained to
+ * them must run on executor() with the *Async methods of CompletableFuture.
+ * Received messages are decoded off the progress thread for the same reason.
+ * Mailboxes are not bounded themselves: the data streams of operators are
+ * sent under credit-based flow control (see CreditGate), so a mailbox holds
+ * at most CREDITS batches per source of a stream.
  */
 public class MPJCommunicator extends Communicator
 {
+	private static final long POLL_NANOS = 20000; // Wait between polls when idle
+	private static final long MAX_POLL_NANOS = 1000000; // Longest wait, after a long idle time
+	private static final int RECV_ROUND = 64; // Messages received before looking at sends again
+	private static final int ANY_SOURCE = -1;
+
+	private int rank;
+	private int size;
+	private final ConcurrentLinkedQueue<Send> submitted = new ConcurrentLinkedQueue<>();
+	private final ArrayList<Send> outstanding = new ArrayList<>(); // Only used by the progress thread
+	private final ConcurrentHashMap<Integer, Mailbox> mailboxes = new ConcurrentHashMap<>();
+	private volatile boolean running;
+	private Thread progress;
+
+	private static final class Send
+	{
+		final byte[] buf;
+		final int count;
+		final int dst;
+		final int tag;
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+		Request req;
+
+		Send(byte[] buf, int count, int dst, int tag)
+		{
+			this.buf = buf;
+			this.count = count;
+			this.dst = dst;
+			this.tag = tag;
+		}
+	}
+
+	private static final class Message
+	{
+		final int src;
+		final byte[] payload; // From the BufferPool, released once the message is read
+		final int length;
+
+		Message(int src, byte[] payload, int length)
+		{
+			this.src = src;
+			this.payload = payload;
+			this.length = length;
+		}
+	}
+
+	// Receive started before its message arrived
+	private static final class Receive
+	{
+		final int src;
+		final CompletableFuture<Message> done = new CompletableFuture<>();
+
+		Receive(int src)
+		{
+			this.src = src;
+		}
+	}
+
+	/**
+	 * Messages of one tag that have not been received yet, and receives of
+	 * that tag still waiting for a message. At most one of them is non-empty
+	 * for any given source.
+	 */
+	private static final class Mailbox
+	{
+		final LinkedList<Message> q = new LinkedList<>();
+		final LinkedList<Receive> waiting = new LinkedList<>();
+		boolean dead = false;
+
+		boolean isEmpty()
+		{
+			return q.isEmpty() && waiting.isEmpty();
+		}
+	}
+
 	public String[] init(String[] argv)
 	{
 		try
 		{
-			return MPI.Init(argv);
+			argv = MPI.Init(argv);
+			rank = MPI.COMM_WORLD.Rank();
+			size = MPI.COMM_WORLD.Size();
+			running = true;
+			progress = new Thread(this::progress, "MPJCommunicator");
+			progress.setDaemon(true);
+			progress.start();
+			return argv;
 		}
 		catch (MPIException e)
 		{
@@ -25,11 +125,15 @@ public class MPJCommunicator extends Communicator
 
 	public void cleanup()
 	{
+		// Sends are all complete once the progress thread stops
+		running = false;
+		LockSupport.unpark(progress);
 		try
 		{
+			progress.join();
 			MPI.Finalize();
 		}
-		catch (MPIException e)
+		catch (MPIException | InterruptedException e)
 		{
 			e.printStackTrace();
 			System.exit(1);
@@ -38,21 +142,61 @@ public class MPJCommunicator extends Communicator
 
 	public int getRank()
 	{
-		return MPI.COMM_WORLD.Rank();
+		return rank;
 	}
 
 	public int getSize()
 	{
-		return MPI.COMM_WORLD.Size();
+		return size;
 	}
 
-	public void sendObject(Object obj, int dst, int tag)
+	// Progress thread: runs until the communicator is finalised and all sends have completed
+	private void progress()
 	{
-		Object[] buf = new Object[1];
-		buf[0] = obj;
+		long idle = 0;
 		try
 		{
-			MPI.COMM_WORLD.Send(buf, 0, 1, MPI.OBJECT, dst, tag);
+			while (running || !submitted.isEmpty() || !outstanding.isEmpty())
+			{
+				boolean busy = false;
+				// Start queued sends
+				Send s;
+				while ((s = submitted.poll()) != null)
+				{
+					s.req = MPI.COMM_WORLD.Isend(s.buf, 0, s.count, MPI.BYTE, s.dst, s.tag);
+					outstanding.add(s);
+					busy = true;
+				}
+				// Complete finished sends
+				for (Iterator<Send> it = outstanding.iterator(); it.hasNext(); )
+				{
+					s = it.next();
+					if (s.req.Test() != null)
+					{
+						it.remove();
+						s.done.complete(null);
+						busy = true;
+					}
+				}
+				// Receive incoming messages
+				Status status;
+				for (int i = 0; i < RECV_ROUND && (status = MPI.COMM_WORLD.Iprobe(MPI.ANY_SOURCE, MPI.ANY_TAG)) != null; i++)
+				{
+					int count = status.Get_count(MPI.BYTE);
+					byte[] buf = BufferPool.acquire(count);
+					MPI.COMM_WORLD.Recv(buf, 0, count, MPI.BYTE, status.source, status.tag);
+					deliver(new Message(status.source, buf, count), status.tag);
+					busy = true;
+				}
+				// Poll less often the longer the node is idle
+				if (busy)
+					idle = 0;
+				else
+				{
+					idle = Math.min(MAX_POLL_NANOS, Math.max(POLL_NANOS, idle * 2));
+					LockSupport.parkNanos(this, idle);
+				}
+			}
 		}
 		catch (MPIException e)
 		{
@@ -61,65 +205,341 @@ public class MPJCommunicator extends Communicator
 		}
 	}
 
-	public Object recvObject(int tag)
+	// Hands a message to the first waiting receive for its source, or queues it
+	private void deliver(Message msg, int tag)
 	{
-		Object[] buf = new Object[1];
-		try
+		Receive r = null;
+		while (true)
 		{
-			MPI.COMM_WORLD.Recv(buf, 0, 1, MPI.OBJECT, MPI.ANY_SOURCE, tag);
+			Mailbox m = mailboxes.computeIfAbsent(tag, t -> new Mailbox());
+			synchronized (m)
+			{
+				if (m.dead)
+					continue;
+				for (Iterator<Receive> it = m.waiting.iterator(); it.hasNext(); )
+				{
+					Receive w = it.next();
+					if (w.src == ANY_SOURCE || w.src == msg.src)
+					{
+						it.remove();
+						r = w;
+						break;
+					}
+				}
+				if (r == null)
+					m.q.add(msg);
+				else
+				{
+					CommMetrics.received(msg.src, tag, msg.length, m.q.size());
+					if (m.isEmpty())
+					{
+						m.dead = true;
+						mailboxes.remove(tag, m);
+					}
+				}
+			}
+			break;
 		}
-		catch (MPIException e)
-		{
-			e.printStackTrace();
-			System.exit(1);
-		}
-		return buf[0];
+		if (r != null)
+			r.done.complete(msg);
 	}
 
-	public int recvObject(Object[] obj, int tag)
+	// Starts a receive, taking a queued message if there is one
+	private CompletableFuture<Message> receive(int src, int tag)
 	{
-		Object[] buf = new Object[1];
-		try
+		while (true)
 		{
-			Status status = MPI.COMM_WORLD.Recv(buf, 0, 1, MPI.OBJECT, MPI.ANY_SOURCE, tag);
-			obj[0] = buf[0];
-			return status.source;
+			Mailbox m = mailboxes.computeIfAbsent(tag, t -> new Mailbox());
+			synchronized (m)
+			{
+				if (m.dead)
+					continue;
+				for (Iterator<Message> it = m.q.iterator(); it.hasNext(); )
+				{
+					Message msg = it.next();
+					if (src == ANY_SOURCE || msg.src == src)
+					{
+						it.remove();
+						CommMetrics.received(msg.src, tag, msg.length, m.q.size());
+						// Remove mailboxes of finished operations
+						if (m.isEmpty())
+						{
+							m.dead = true;
+							mailboxes.remove(tag, m);
+						}
+						return CompletableFuture.completedFuture(msg);
+					}
+				}
+				Receive r = new Receive(src);
+				m.waiting.add(r);
+				return r.done;
+			}
 		}
-		catch (MPIException e)
+	}
+
+	private Message take(int src, int tag)
+	{
+		CompletableFuture<Message> f = receive(src, tag);
+		if (f.isDone())
+			return f.join();
+		long start = System.nanoTime();
+		Message msg = f.join();
+		CommMetrics.waited(tag, System.nanoTime() - start);
+		return msg;
+	}
+
+	private CompletableFuture<Void> submit(byte[] buf, int count, int dst, int tag)
+	{
+		CommMetrics.sent(dst, tag, count);
+		if (dst == rank)
 		{
-			e.printStackTrace();
-			System.exit(1);
+			byte[] copy = BufferPool.acquire(count);
+			System.arraycopy(buf, 0, copy, 0, count);
+			deliver(new Message(rank, copy, count), tag);
+			return CompletableFuture.completedFuture(null);
 		}
-		return -1;
+		Send s = new Send(buf, count, dst, tag);
+		submitted.add(s);
+		LockSupport.unpark(progress);
+		return s.done;
 	}
 
-	public void sendInt(int n, int dst, int tag)
+	// Sends a pooled array, and releases it once sent
+	private CompletableFuture<Void> submitPooled(byte[] buf, int count, int dst, int tag)
+	{
+		CompletableFuture<Void> f = submit(buf, count, dst, tag);
+		f.thenRun(() -> BufferPool.release(buf));
+		return f;
+	}
+
+	private static Object toObject(Message msg)
 	{
-		int[] buf = new int[1];
-		buf[0] = n;
 		try
 		{
-			MPI.COMM_WORLD.Send(buf, 0, 1, MPI.INT, dst, tag);
+			return ObjectStreams.input(new ByteArrayInputStream(msg.payload, 0, msg.length)).readObject();
 		}
-		catch (MPIException e)
+		catch (IOException | ClassNotFoundException e)
 		{
 			e.printStackTrace();
 			System.exit(1);
 		}
+		finally
+		{
+			BufferPool.release(msg.payload);
+		}
+		return null;
+	}
+
+	private static int toInt(Message msg)
+	{
+		int n = ByteBuffer.wrap(msg.payload).getInt();
+		BufferPool.release(msg.payload);
+		return n;
+	}
+
+	private static byte[] toByteArray(Message msg)
+	{
+		byte[] buf = Arrays.copyOf(msg.payload, msg.length);
+		BufferPool.release(msg.payload);
+		return buf;
+	}
+
+	private static int[] toIntArray(Message msg)
+	{
+		int[] buf = new int[msg.length / 4];
+		ByteBuffer.wrap(msg.payload, 0, msg.length).asIntBuffer().get(buf);
+		BufferPool.release(msg.payload);
+		return buf;
+	}
+
+	private static long[] toLongArray(Message msg)
+	{
+		long[] buf = new long[msg.length / 8];
+		ByteBuffer.wrap(msg.payload, 0, msg.length).asLongBuffer().get(buf);
+		BufferPool.release(msg.payload);
+		return buf;
+	}
+
+	private static double[] toDoubleArray(Message msg)
+	{
+		double[] buf = new double[msg.length / 8];
+		ByteBuffer.wrap(msg.payload, 0, msg.length).asDoubleBuffer().get(buf);
+		BufferPool.release(msg.payload);
+		return buf;
+	}
+
+	public void sendObject(Object obj, int dst, int tag)
+	{
+		isendObject(obj, dst, tag).join();
+	}
+
+	public Object recvObject(int tag)
+	{
+		return toObject(take(ANY_SOURCE, tag));
+	}
+
+	public int recvObject(Object[] obj, int tag)
+	{
+		Message msg = take(ANY_SOURCE, tag);
+		obj[0] = toObject(msg);
+		return msg.src;
+	}
+
+	public Object recvObject(int src, int tag)
+	{
+		return toObject(take(src, tag));
+	}
+
+	public void sendInt(int n, int dst, int tag)
+	{
+		byte[] buf = BufferPool.acquire(4);
+		ByteBuffer.wrap(buf).putInt(n);
+		submitPooled(buf, 4, dst, tag).join();
 	}
 
 	public int recvInt(int src, int tag)
 	{
-		int[] buf = new int[1];
+		return toInt(take(src, tag));
+	}
+
+	public void sendByteArray(byte[] buf, int count, int dst, int tag)
+	{
+		submit(buf, count, dst, tag).join();
+	}
+
+	public byte[] recvByteArray(int tag)
+	{
+		return toByteArray(take(ANY_SOURCE, tag));
+	}
+
+	@Override
+	public ByteBuffer recvBuffer(int tag)
+	{
+		Message msg = take(ANY_SOURCE, tag);
+		return ByteBuffer.wrap(msg.payload, 0, msg.length);
+	}
+
+	public void sendIntArray(int[] buf, int count, int dst, int tag)
+	{
+		isendIntArray(buf, count, dst, tag).join();
+	}
+
+	public int[] recvIntArray(int tag)
+	{
+		return toIntArray(take(ANY_SOURCE, tag));
+	}
+
+	public void sendLongArray(long[] buf, int count, int dst, int tag)
+	{
+		isendLongArray(buf, count, dst, tag).join();
+	}
+
+	public long[] recvLongArray(int tag)
+	{
+		return toLongArray(take(ANY_SOURCE, tag));
+	}
+
+	public long[] recvLongArray(int src, int tag)
+	{
+		return toLongArray(take(src, tag));
+	}
+
+	public void sendDoubleArray(double[] buf, int count, int dst, int tag)
+	{
+		isendDoubleArray(buf, count, dst, tag).join();
+	}
+
+	public double[] recvDoubleArray(int tag)
+	{
+		return toDoubleArray(take(ANY_SOURCE, tag));
+	}
+
+	public double[] recvDoubleArray(int src, int tag)
+	{
+		return toDoubleArray(take(src, tag));
+	}
+
+	@Override
+	public CompletableFuture<Void> isendObject(Object obj, int dst, int tag)
+	{
+		BufferPool.Output bos = new BufferPool.Output(512);
 		try
 		{
-			MPI.COMM_WORLD.Recv(buf, 0, 1, MPI.INT, src, tag);
+			ObjectOutputStream os = ObjectStreams.output(bos);
+			os.writeObject(obj);
+			os.flush();
 		}
-		catch (MPIException e)
+		catch (IOException e)
 		{
 			e.printStackTrace();
 			System.exit(1);
 		}
-		return buf[0];
+		return submitPooled(bos.array(), bos.size(), dst, tag);
+	}
+
+	@Override
+	public CompletableFuture<Object> irecvObject(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), MPJCommunicator::toObject);
+	}
+
+	@Override
+	public CompletableFuture<Integer> irecvInt(int src, int tag)
+	{
+		return decode(receive(src, tag), MPJCommunicator::toInt);
+	}
+
+	@Override
+	public CompletableFuture<Void> isendByteArray(byte[] buf, int count, int dst, int tag)
+	{
+		return submit(buf, count, dst, tag);
+	}
+
+	@Override
+	public CompletableFuture<byte[]> irecvByteArray(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), MPJCommunicator::toByteArray);
+	}
+
+	@Override
+	public CompletableFuture<Void> isendIntArray(int[] buf, int count, int dst, int tag)
+	{
+		byte[] b = BufferPool.acquire(count * 4);
+		ByteBuffer.wrap(b).asIntBuffer().put(buf, 0, count);
+		return submitPooled(b, count * 4, dst, tag);
+	}
+
+	@Override
+	public CompletableFuture<int[]> irecvIntArray(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), MPJCommunicator::toIntArray);
+	}
+
+	@Override
+	public CompletableFuture<Void> isendLongArray(long[] buf, int count, int dst, int tag)
+	{
+		byte[] b = BufferPool.acquire(count * 8);
+		ByteBuffer.wrap(b).asLongBuffer().put(buf, 0, count);
+		return submitPooled(b, count * 8, dst, tag);
+	}
+
+	@Override
+	public CompletableFuture<long[]> irecvLongArray(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), MPJCommunicator::toLongArray);
+	}
+
+	@Override
+	public CompletableFuture<Void> isendDoubleArray(double[] buf, int count, int dst, int tag)
+	{
+		byte[] b = BufferPool.acquire(count * 8);
+		ByteBuffer.wrap(b).asDoubleBuffer().put(buf, 0, count);
+		return submitPooled(b, count * 8, dst, tag);
+	}
+
+	@Override
+	public CompletableFuture<double[]> irecvDoubleArray(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), MPJCommunicator::toDoubleArray);
 	}
 }
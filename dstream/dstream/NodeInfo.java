@@ -0,0 +1,93 @@
+package dstream;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+
+/**
+ * Describes the machine and JVM a compute node runs on.
+ * Gathered from every rank at start-up, so that any node can look up the
+ * resources of the others.
+ * @see dstream.ComputeNode#getInfo()
+ */
+public class NodeInfo implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String hostname;
+	private final int cores;
+	private final long maxMemory;
+	private final int numaNodes;
+
+	private NodeInfo(String hostname, int cores, long maxMemory, int numaNodes)
+	{
+		this.hostname = hostname;
+		this.cores = cores;
+		this.maxMemory = maxMemory;
+		this.numaNodes = numaNodes;
+	}
+
+	/**
+	 * Describes the current process.
+	 */
+	static NodeInfo local() throws UnknownHostException
+	{
+		Runtime r = Runtime.getRuntime();
+		return new NodeInfo(InetAddress.getLocalHost().getHostName().split("\\.")[0], r.availableProcessors(), r.maxMemory(), numaNodes());
+	}
+
+	// Counts the NUMA nodes listed by Linux, or returns 1 if they are unknown
+	private static int numaNodes()
+	{
+		int n = 0;
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get("/sys/devices/system/node"), "node[0-9]*"))
+		{
+			for (Path p: dir)
+				n++;
+		}
+		catch (IOException | UnsupportedOperationException e)
+		{
+			return 1;
+		}
+		return Math.max(n, 1);
+	}
+
+	/**
+	 * Returns the short name of the host.
+	 */
+	public String getHostname()
+	{
+		return hostname;
+	}
+
+	/**
+	 * Returns the number of processors available to the node's JVM.
+	 * Ranks sharing a JVM (see LocalCommunicator) share these processors.
+	 */
+	public int getCores()
+	{
+		return cores;
+	}
+
+	/**
+	 * Returns the maximum heap size of the node's JVM, in bytes.
+	 */
+	public long getMaxMemory()
+	{
+		return maxMemory;
+	}
+
+	/**
+	 * Returns the number of NUMA nodes of the host.
+	 */
+	public int getNumaNodes()
+	{
+		return numaNodes;
+	}
+
+	@Override
+	public String toString()
+	{
+		return hostname + " (" + cores + " cores, " + (maxMemory >> 20) + " MB, " + numaNodes + " NUMA nodes)";
+	}
+}
@@ -0,0 +1,156 @@
+package dstream;
+
+import java.io.*;
+
+/**
+ * Object streams for messages, reused by each thread.
+ * Creating an ObjectOutputStream or ObjectInputStream allocates several
+ * kilobytes of buffers and tables, which would otherwise be taken for
+ * every message. The streams of a thread are pointed at the data of each
+ * new message instead. They have no stream header, and every message
+ * starts with a reset, so that any thread can decode it. A thread's
+ * streams keep the objects of its last message referenced until it starts
+ * the next one.
+ * A thread must finish with a message before it starts another.
+ */
+final class ObjectStreams
+{
+	private static final ThreadLocal<Output> output = ThreadLocal.withInitial(Output::create);
+	private static final ThreadLocal<Input> input = ThreadLocal.withInitial(Input::create);
+
+	private ObjectStreams() { } // Do not instantiate
+
+	/**
+	 * Returns the current thread's output stream, writing a new message
+	 * into the specified stream. The caller flushes it once done.
+	 * @param os Stream receiving the message.
+	 * @return Object output stream.
+	 */
+	static ObjectOutputStream output(OutputStream os) throws IOException
+	{
+		Output out = output.get();
+		out.target.os = os;
+		out.reset();
+		return out;
+	}
+
+	/**
+	 * Returns the current thread's input stream, reading a message written
+	 * by an output stream of this class from the specified stream.
+	 * @param is Stream holding the message.
+	 * @return Object input stream.
+	 */
+	static ObjectInputStream input(InputStream is) throws IOException
+	{
+		Input in = input.get();
+		in.source.is = is;
+		return in;
+	}
+
+	// Output stream without header
+	private static final class Output extends ObjectOutputStream
+	{
+		final Target target;
+
+		private Output(Target target) throws IOException
+		{
+			super(target);
+			this.target = target;
+		}
+
+		static Output create()
+		{
+			try
+			{
+				return new Output(new Target());
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		protected void writeStreamHeader()
+		{
+		}
+	}
+
+	// Input stream without header
+	private static final class Input extends ObjectInputStream
+	{
+		final Source source;
+
+		private Input(Source source) throws IOException
+		{
+			super(source);
+			this.source = source;
+		}
+
+		static Input create()
+		{
+			try
+			{
+				return new Input(new Source());
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		protected void readStreamHeader()
+		{
+		}
+	}
+
+	// Forwards to the stream of the current message
+	private static final class Target extends OutputStream
+	{
+		OutputStream os;
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			os.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			os.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			if (os != null)
+				os.flush();
+		}
+	}
+
+	// Reads from the stream of the current message
+	private static final class Source extends InputStream
+	{
+		InputStream is;
+
+		@Override
+		public int read() throws IOException
+		{
+			return is.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			return is.read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return (is == null ? 0 : is.available());
+		}
+	}
+}
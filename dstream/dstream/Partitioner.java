@@ -14,4 +14,28 @@ public interface Partitioner<T>
 	 * will be wrapped around.
 	 */
 	public int partition(T data);
+
+	/**
+	 * Returns the partitioner using the Object.hashCode method.
+	 * Always returns the same instance, so that Distributed Maps built
+	 * with it can tell that their keys are partitioned alike.
+	 * @return Hash-based partitioner.
+	 */
+	public static <T> Partitioner<T> hash()
+	{
+		return (Partitioner<T>) HashPartitioner.INSTANCE;
+	}
+}
+
+class HashPartitioner implements Partitioner<Object>
+{
+	static final HashPartitioner INSTANCE = new HashPartitioner();
+
+	private HashPartitioner() { } // Use Partitioner.hash()
+
+	@Override
+	public int partition(Object data)
+	{
+		return data.hashCode();
+	}
 }
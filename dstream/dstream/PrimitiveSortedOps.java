@@ -0,0 +1,395 @@
+package dstream;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * Sample sort of primitive streams, which never boxes a value.
+ * Values are mapped to long keys in the same order (see key()), so that
+ * one implementation sorts ints, longs and doubles. Each node sorts its
+ * local keys with a parallel LSD radix sort, then draws regular samples
+ * from them, from which all nodes choose the same splitters. Each node
+ * sends the ranges of its sorted keys to their nodes in chunks, as long
+ * arrays, or as int arrays when sorting ints, which the receivers widen
+ * back to keys. Each node merges the sorted chunks it receives with its
+ * own range.
+ */
+class PrimitiveSortedOps
+{
+	private static final int SAMPLES = 1024;
+	private static final int CHUNK = 1 << 14; // Keys per message
+	private static final int RADIX_MIN = 1 << 16; // Smaller arrays are sorted by Arrays.sort()
+
+	private PrimitiveSortedOps() { } // Do not instantiate
+
+	public static DistributedIntStream sorted(IntPipeline upstream)
+	{
+		LongStream s = sorted(upstream.s.asLongStream().toArray(), true, upstream.grp, upstream.isParallel());
+		return new IntPipeline(s.mapToInt(k -> (int) k), upstream.grp);
+	}
+
+	public static DistributedLongStream sorted(LongPipeline upstream)
+	{
+		return new LongPipeline(sorted(upstream.s.toArray(), false, upstream.grp, upstream.isParallel()), upstream.grp);
+	}
+
+	public static DistributedDoubleStream sorted(DoublePipeline upstream)
+	{
+		LongStream s = sorted(upstream.s.mapToLong(PrimitiveSortedOps::key).toArray(), false, upstream.grp, upstream.isParallel());
+		return new DoublePipeline(s.mapToDouble(PrimitiveSortedOps::value), upstream.grp);
+	}
+
+	/**
+	 * Maps a double to a long key ordered as Double.compare() orders doubles.
+	 * Flipping all but the sign bit of negative values reverses their
+	 * order; NaN is canonicalised so that it sorts last.
+	 */
+	static long key(double d)
+	{
+		long bits = Double.doubleToLongBits(d);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	static double value(long key)
+	{
+		return Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+	}
+
+	/**
+	 * @param ints Whether the keys are ints, so that chunks are sent as int arrays.
+	 */
+	private static LongStream sorted(long[] local, boolean ints, ComputeGroup grp, boolean parallel)
+	{
+		final int rank = grp.indexOf(ComputeNode.getSelf());
+		final int buckets = grp.size();
+		int bcastTag = ComputeNode.nextTag(grp, "sorted.bounds");
+		int[] distribTag = new int[buckets];
+		for (int i = 0; i < buckets; i++)
+			distribTag[i] = ComputeNode.nextTag(grp, "sorted");
+		int[] creditTag = new int[buckets]; // Credit granted by each receiver
+		for (int i = 0; i < buckets; i++)
+			creditTag[i] = ComputeNode.nextTag(grp, "sorted.credit");
+		radixSort(local);
+		// Choose splitters from regular samples of all nodes
+		int localSamples = Math.min(local.length, SAMPLES / buckets + 1);
+		long[] samples = new long[localSamples];
+		for (int i = 0; i < localSamples; i++)
+			samples[i] = local[(int) ((long) local.length * i / localSamples)];
+		for (int i = 0; i < buckets; i++)
+			if (i != rank)
+				ComputeNode.comm.sendLongArray(samples, samples.length, grp.get(i).rank, bcastTag);
+		long[][] received = new long[buckets][];
+		received[rank] = samples;
+		int total = samples.length;
+		for (int i = 0; i < buckets; i++)
+			if (i != rank)
+			{
+				received[i] = ComputeNode.comm.recvLongArray(grp.get(i).rank, bcastTag);
+				total += received[i].length;
+			}
+		long[] all = new long[total];
+		for (int i = 0, n = 0; i < buckets; n += received[i].length, i++)
+			System.arraycopy(received[i], 0, all, n, received[i].length);
+		Arrays.sort(all);
+		// Range of each node: keys below its splitter, and not below the previous one
+		int[] pos = new int[buckets];
+		for (int i = 1; i < buckets; i++)
+			pos[i - 1] = (total > 0 ? lowerBound(local, all[(int) ((long) total * i / buckets)]) : local.length);
+		pos[buckets - 1] = local.length;
+		// Send keys to other nodes, without waiting for the transfers
+		CompletableFuture<Void>[] sent = new CompletableFuture[buckets];
+		for (int b = 0; b < buckets; b++)
+		{
+			if (b == rank)
+				sent[b] = CompletableFuture.completedFuture(null);
+			else
+			{
+				int dst = grp.get(b).rank;
+				sent[b] = new SortedOpsOptimised.ChunkSender((b > 0 ? pos[b - 1] : 0), pos[b], CHUNK, (from, n) ->
+				{
+					if (!ints)
+						return ComputeNode.comm.isendLongArray(Arrays.copyOfRange(local, from, from + n), n, dst, distribTag[rank]);
+					int[] chunk = new int[n];
+					for (int i = 0; i < n; i++)
+						chunk[i] = (int) local[from + i];
+					return ComputeNode.comm.isendIntArray(chunk, n, dst, distribTag[rank]);
+				}, dst, creditTag[b]).start();
+			}
+		}
+		MergeSpliterator sp = new MergeSpliterator(local, (rank == 0 ? 0 : pos[rank - 1]), pos[rank], rank, ints, grp, distribTag, creditTag[rank], CompletableFuture.allOf(sent));
+		return StreamSupport.longStream(sp, parallel);
+	}
+
+	// Index of the first key not below the given key
+	private static int lowerBound(long[] a, long key)
+	{
+		int lo = 0, hi = a.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Sorts keys with a parallel LSD radix sort of 8-bit digits.
+	 * Digits are taken from the offset of each key from the smallest one,
+	 * so only the low bytes of narrow ranges (e.g. of ints) are sorted on.
+	 * Each pass counts the digits of slices of the array in parallel, then
+	 * moves each slice to its offsets in parallel, which keeps it stable.
+	 * Passes where all keys share the same digit are skipped.
+	 */
+	static void radixSort(long[] a)
+	{
+		if (a.length < RADIX_MIN)
+		{
+			Arrays.sort(a);
+			return;
+		}
+		long min = LongStream.of(a).parallel().min().getAsLong();
+		long max = LongStream.of(a).parallel().max().getAsLong();
+		int bits = 64 - Long.numberOfLeadingZeros(max - min);
+		int slices = Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, a.length / RADIX_MIN + 1);
+		int[][] offset = new int[slices][256];
+		long[] src = a;
+		long[] dst = new long[a.length];
+		for (int shift = 0; shift < bits; shift += 8)
+		{
+			final int sh = shift;
+			final long[] from = src, to = dst;
+			IntStream.range(0, slices).parallel().forEach(t ->
+			{
+				int[] count = offset[t];
+				Arrays.fill(count, 0);
+				for (int i = start(t, slices, from.length), end = start(t + 1, slices, from.length); i < end; i++)
+					count[(int) ((from[i] - min) >>> sh) & 0xFF]++;
+			});
+			// Offset of each slice's keys with each digit
+			int n = 0;
+			boolean trivial = false;
+			for (int d = 0; d < 256; d++)
+			{
+				int before = n;
+				for (int t = 0; t < slices; t++)
+				{
+					int c = offset[t][d];
+					offset[t][d] = n;
+					n += c;
+				}
+				if (n - before == a.length)
+					trivial = true;
+			}
+			if (trivial)
+				continue;
+			IntStream.range(0, slices).parallel().forEach(t ->
+			{
+				int[] next = offset[t];
+				for (int i = start(t, slices, from.length), end = start(t + 1, slices, from.length); i < end; i++)
+					to[next[(int) ((from[i] - min) >>> sh) & 0xFF]++] = from[i];
+			});
+			src = to;
+			dst = from;
+		}
+		if (src != a)
+			System.arraycopy(src, 0, a, 0, a.length);
+	}
+
+	private static int start(int slice, int slices, int length)
+	{
+		return (int) ((long) length * slice / slices);
+	}
+
+	/**
+	 * Merges the sorted range of local keys with the sorted chunks received
+	 * from the other nodes, through a binary heap of node indices ordered
+	 * by the next key of each node.
+	 */
+	static class MergeSpliterator implements Spliterator.OfLong
+	{
+		private static final int BATCH = 1024;
+
+		private final long[] local;
+		private int localIndex;
+		private final int localTo;
+		private final int rank;
+		private final boolean ints; // Whether chunks arrive as int arrays
+		private final ComputeGroup grp;
+		private final int[] distribTag;
+		private CreditGrant credit;
+		private final long[][] chunk; // Chunk being merged per node
+		private final int[] chunkIndex;
+		private final CompletableFuture<long[]>[] nextChunk; // Chunk being received per node
+		private final long[] head; // Next key per node
+		private final int[] heap; // Nodes with keys left, by next key
+		private int heapSize = 0;
+		private final CompletableFuture<Void> sent;
+
+		MergeSpliterator(long[] local, int localFrom, int localTo, int rank, boolean ints, ComputeGroup grp, int[] distribTag, int creditTag, CompletableFuture<Void> sent)
+		{
+			this.local = local;
+			localIndex = localFrom;
+			this.localTo = localTo;
+			this.rank = rank;
+			this.ints = ints;
+			this.grp = grp;
+			this.distribTag = distribTag;
+			credit = new CreditGrant(creditTag);
+			this.sent = sent;
+			int buckets = distribTag.length;
+			chunk = new long[buckets][];
+			chunkIndex = new int[buckets];
+			nextChunk = new CompletableFuture[buckets];
+			head = new long[buckets];
+			heap = new int[buckets];
+			for (int i = 0; i < buckets; i++)
+				if (i != rank)
+					nextChunk[i] = receive(i);
+			for (int i = 0; i < buckets; i++)
+				if (advance(i))
+					push(i);
+		}
+
+		// Reads the next key of a node into head, or returns false if there are no more
+		private boolean advance(int i)
+		{
+			if (i == rank)
+			{
+				if (localIndex == localTo)
+					return false;
+				head[i] = local[localIndex++];
+				return true;
+			}
+			long[] c = chunk[i];
+			if (c == null || chunkIndex[i] == c.length)
+			{
+				if (nextChunk[i] == null)
+					return false;
+				c = nextChunk[i].join();
+				if (c.length == 0)
+				{
+					chunk[i] = null;
+					nextChunk[i] = null;
+					return false;
+				}
+				// Grant credit for the chunk, and receive the following one while this one is merged
+				credit.consumed(grp.get(i).rank);
+				nextChunk[i] = receive(i);
+				chunk[i] = c;
+				chunkIndex[i] = 0;
+			}
+			head[i] = c[chunkIndex[i]++];
+			return true;
+		}
+
+		// Starts receiving the next chunk of a node, as keys
+		private CompletableFuture<long[]> receive(int i)
+		{
+			if (!ints)
+				return ComputeNode.comm.irecvLongArray(distribTag[i]);
+			return ComputeNode.comm.irecvIntArray(distribTag[i]).thenApply(a ->
+			{
+				long[] c = new long[a.length];
+				for (int j = 0; j < a.length; j++)
+					c[j] = a[j];
+				return c;
+			});
+		}
+
+		private void push(int node)
+		{
+			int i = heapSize++;
+			while (i > 0 && head[heap[(i - 1) / 2]] > head[node])
+			{
+				heap[i] = heap[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			heap[i] = node;
+		}
+
+		// Restores the heap order after the key of the top node changed
+		private void siftDown()
+		{
+			int node = heap[0];
+			int i = 0;
+			while (true)
+			{
+				int c = 2 * i + 1;
+				if (c >= heapSize)
+					break;
+				if (c + 1 < heapSize && head[heap[c + 1]] < head[heap[c]])
+					c++;
+				if (head[heap[c]] >= head[node])
+					break;
+				heap[i] = heap[c];
+				i = c;
+			}
+			heap[i] = node;
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action)
+		{
+			if (heapSize == 0)
+			{
+				if (credit != null)
+				{
+					credit.finish();
+					credit = null;
+				}
+				sent.join();
+				return false;
+			}
+			int node = heap[0];
+			long key = head[node];
+			if (!advance(node))
+				heap[0] = heap[--heapSize];
+			if (heapSize > 0)
+				siftDown();
+			action.accept(key);
+			return true;
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit()
+		{
+			long[] batch = new long[BATCH];
+			int n = 0;
+			while (n < BATCH && heapSize > 0)
+			{
+				int node = heap[0];
+				batch[n++] = head[node];
+				if (!advance(node))
+					heap[0] = heap[--heapSize];
+				if (heapSize > 0)
+					siftDown();
+			}
+			if (n > 0)
+				return Spliterators.spliterator(batch, 0, n, characteristics());
+			return null;
+		}
+
+		@Override
+		public int characteristics()
+		{
+			return IMMUTABLE | ORDERED | SORTED;
+		}
+
+		@Override
+		public Comparator<? super Long> getComparator()
+		{
+			return null; // Natural order
+		}
+
+		@Override
+		public long estimateSize()
+		{
+			return Long.MAX_VALUE;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package dstream;
 
+import dstream.util.*;
 import java.util.*;
 import java.util.function.*;
 import java.util.stream.*;
@@ -73,7 +74,13 @@ class ReferencePipeline<T> implements DistributedStream<T>
 	@Override
 	public DistributedStream<T> distribute(ComputeGroup grp, Partitioner<? super T> p)
 	{
-		return DistributeOps.distribute(this, grp, p);
+		return distribute(grp, p, Codec.getDefault());
+	}
+
+	@Override
+	public DistributedStream<T> distribute(ComputeGroup grp, Partitioner<? super T> p, Codec<? super T> codec)
+	{
+		return DistributeOps.distribute(this, grp, p, codec);
 	}
 
 	@Override
@@ -83,6 +90,72 @@ class ReferencePipeline<T> implements DistributedStream<T>
 		return distribute(single);
 	}
 
+	@Override
+	public <K, V> DistributedStream<Map.Entry<K, V>> distributeAndCombine(Function<? super T, ? extends K> keyFn, Function<? super T, ? extends V> valueFn, BinaryOperator<V> combiner)
+	{
+		return distributeAndCombine(grp, keyFn, valueFn, combiner);
+	}
+
+	@Override
+	public <K, V> DistributedStream<Map.Entry<K, V>> distributeAndCombine(ComputeGroup grp, Function<? super T, ? extends K> keyFn, Function<? super T, ? extends V> valueFn, BinaryOperator<V> combiner)
+	{
+		return DistributeOps.distributeAndCombine(this, grp, keyFn, valueFn, combiner);
+	}
+
+	@Override
+	public <K, V> DistributedMap<K, V> reduceByKey(Function<? super T, ? extends K> keyFn, Function<? super T, ? extends V> valueFn, BinaryOperator<V> reducer)
+	{
+		return reduceByKey(grp, Partitioner.hash(), keyFn, valueFn, reducer);
+	}
+
+	@Override
+	public <K, V> DistributedMap<K, V> reduceByKey(ComputeGroup grp, Partitioner<? super K> p, Function<? super T, ? extends K> keyFn, Function<? super T, ? extends V> valueFn, BinaryOperator<V> reducer)
+	{
+		return DistributeOps.reduceByKey(this, grp, p, keyFn, valueFn, reducer);
+	}
+
+	@Override
+	public <K, A> DistributedMap<K, A> aggregateByKey(Function<? super T, ? extends K> keyFn, Supplier<A> zero, BiFunction<A, ? super T, A> accumulator, BinaryOperator<A> combiner)
+	{
+		return aggregateByKey(grp, Partitioner.hash(), keyFn, zero, accumulator, combiner);
+	}
+
+	@Override
+	public <K, A> DistributedMap<K, A> aggregateByKey(ComputeGroup grp, Partitioner<? super K> p, Function<? super T, ? extends K> keyFn, Supplier<A> zero, BiFunction<A, ? super T, A> accumulator, BinaryOperator<A> combiner)
+	{
+		return DistributeOps.aggregateByKey(this, grp, p, keyFn, zero, accumulator, combiner);
+	}
+
+	@Override
+	public <U, K, R> DistributedStream<R> join(DistributedStream<U> other, Function<? super T, ? extends K> keyFn, Function<? super U, ? extends K> otherKeyFn, BiFunction<? super T, ? super U, ? extends R> joiner)
+	{
+		return JoinOps.join(this, other, keyFn, otherKeyFn, joiner, false);
+	}
+
+	@Override
+	public <U, K, R> DistributedStream<R> leftJoin(DistributedStream<U> other, Function<? super T, ? extends K> keyFn, Function<? super U, ? extends K> otherKeyFn, BiFunction<? super T, ? super U, ? extends R> joiner)
+	{
+		return JoinOps.join(this, other, keyFn, otherKeyFn, joiner, true);
+	}
+
+	@Override
+	public <K, V, R> DistributedStream<R> join(DistributedMap<K, V> map, Function<? super T, ? extends K> keyFn, BiFunction<? super T, ? super V, ? extends R> joiner)
+	{
+		return JoinOps.join(this, map, keyFn, joiner, false);
+	}
+
+	@Override
+	public <K, V, R> DistributedStream<R> leftJoin(DistributedMap<K, V> map, Function<? super T, ? extends K> keyFn, BiFunction<? super T, ? super V, ? extends R> joiner)
+	{
+		return JoinOps.join(this, map, keyFn, joiner, true);
+	}
+
+	@Override
+	public <U, K, R> DistributedStream<R> sortMergeJoin(DistributedStream<U> other, Function<? super T, ? extends K> keyFn, Function<? super U, ? extends K> otherKeyFn, Comparator<? super K> keyComparator, BiFunction<? super T, ? super U, ? extends R> joiner)
+	{
+		return SortedOps.sortMergeJoin(this, other, keyFn, otherKeyFn, keyComparator, joiner);
+	}
+
 	@Override
 	public DistributedStream<T>[] split(int numStreams)
 	{
@@ -241,7 +314,7 @@ class ReferencePipeline<T> implements DistributedStream<T>
 	@Override
 	public DistributedStream<T> limit(long maxSize)
 	{
-		return null; // TODO
+		return DistributeOps.limit(this, maxSize);
 	}
 
 	@Override
@@ -277,7 +350,7 @@ class ReferencePipeline<T> implements DistributedStream<T>
 	@Override
 	public DistributedStream<T> skip(long n)
 	{
-		return null; // TODO
+		return DistributeOps.skip(this, n);
 	}
 
 	@Override
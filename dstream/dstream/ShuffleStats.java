@@ -0,0 +1,107 @@
+package dstream;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Statistics of the data sent by the shuffles (distribute and broadcast
+ * operations) of a compute node.
+ * Byte counts cover batches that are sent as arrays of bytes or of
+ * primitives; batches passed by reference only count as batches and items.
+ * @see dstream.ComputeNode#getShuffleStats()
+ */
+public class ShuffleStats
+{
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder items = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder wireBytes = new LongAdder();
+	private final LongAdder compressedBatches = new LongAdder();
+	private final LongAdder compressNanos = new LongAdder();
+
+	ShuffleStats()
+	{
+	}
+
+	/**
+	 * Records a batch sent.
+	 * @param n Number of items in the batch.
+	 * @param size Encoded size in bytes.
+	 * @param wireSize Size in bytes as sent, after any compression.
+	 */
+	void sent(int n, long size, long wireSize)
+	{
+		batches.increment();
+		items.add(n);
+		bytes.add(size);
+		wireBytes.add(wireSize);
+	}
+
+	/**
+	 * Records the compression of a batch, whether or not it was sent compressed.
+	 * @param nanos Time taken to compress the batch.
+	 * @param used True if the batch was sent compressed.
+	 */
+	void compressed(long nanos, boolean used)
+	{
+		compressNanos.add(nanos);
+		if (used)
+			compressedBatches.increment();
+	}
+
+	public long getBatches()
+	{
+		return batches.sum();
+	}
+
+	public long getItems()
+	{
+		return items.sum();
+	}
+
+	/**
+	 * Returns the number of bytes sent before compression.
+	 */
+	public long getBytes()
+	{
+		return bytes.sum();
+	}
+
+	/**
+	 * Returns the number of bytes sent after compression.
+	 */
+	public long getWireBytes()
+	{
+		return wireBytes.sum();
+	}
+
+	public long getCompressedBatches()
+	{
+		return compressedBatches.sum();
+	}
+
+	/**
+	 * Returns the time spent compressing batches, including probes in auto mode.
+	 */
+	public long getCompressionNanos()
+	{
+		return compressNanos.sum();
+	}
+
+	/**
+	 * Returns the ratio of bytes sent after compression to bytes before compression.
+	 * @return Ratio between 0 and 1, or 1 if nothing was sent as bytes.
+	 */
+	public double getCompressionRatio()
+	{
+		long b = getBytes();
+		return (b == 0 ? 1.0 : (double) getWireBytes() / b);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("batches=%d items=%d bytes=%d wire=%d compressed=%d ratio=%.3f compress=%.1fms",
+			getBatches(), getItems(), getBytes(), getWireBytes(), getCompressedBatches(),
+			getCompressionRatio(), getCompressionNanos() / 1e6);
+	}
+}
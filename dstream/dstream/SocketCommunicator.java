@@ -0,0 +1,777 @@
+package dstream;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * TCP socket communicator implementation using java.nio.
+ * Does not need an MPI installation: each node is started as a separate
+ * Java process running ComputeNode with the following system properties:
+ *   dstream.comm=socket
+ *   dstream.hosts=host0:port0,host1:port1,... (one entry per rank, in rank order)
+ *   dstream.rank=N (this node's rank)
+ * Instead of dstream.hosts, dstream.hostfile can name a file containing
+ * one host:port entry per line.
+ * Every pair of nodes is connected by a single socket. Outgoing messages
+ * are written through a direct buffer per connection. Incoming messages
+ * are read by a selector thread, which hands them over to the receives
+ * waiting in the mailbox of their tag, or queues them there. Non-blocking
+ * receives wait in the mailbox too, so they hold no thread; as with
+ * MPJCommunicator, their messages are decoded on executor().
+ */
+public class SocketCommunicator extends Communicator
+{
+	private static final int SOCKET_BUFFER = Integer.getInteger("dstream.socket.buffer", 4 << 20);
+	private static final int IO_BUFFER = 256 << 10; // Direct buffer size per connection
+	private static final int HEADER = 9; // Tag (int), type (byte), length (int)
+	private static final long CONNECT_TIMEOUT = 60000; // ms
+	private static final int ANY_SOURCE = -1;
+
+	// Message types
+	private static final byte OBJECT = 0;
+	private static final byte INT = 1;
+	private static final byte BYTES = 2;
+	private static final byte INTS = 3;
+	private static final byte LONGS = 4;
+	private static final byte DOUBLES = 5;
+	private static final byte FIN = 6;
+
+	private int rank;
+	private int size;
+	private Connection[] conns;
+	private Selector selector;
+	private Thread receiver;
+	private CountDownLatch fins;
+	private final ConcurrentHashMap<Integer, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+	private static final class Connection
+	{
+		final int rank;
+		final SocketChannel ch;
+		final Selector writable;
+		final ByteBuffer out; // Guarded by this
+		final ByteBuffer in; // Only used by the receiver thread
+		// Partially received message
+		int tag;
+		byte type;
+		byte[] payload; // From the BufferPool
+		int length;
+		int pos;
+
+		Connection(int rank, SocketChannel ch) throws IOException
+		{
+			this.rank = rank;
+			this.ch = ch;
+			ch.configureBlocking(false);
+			writable = Selector.open();
+			ch.register(writable, SelectionKey.OP_WRITE);
+			out = ByteBuffer.allocateDirect(IO_BUFFER);
+			in = ByteBuffer.allocateDirect(IO_BUFFER);
+			payload = null;
+		}
+	}
+
+	private static final class Message
+	{
+		final int src;
+		final byte type;
+		final byte[] payload; // From the BufferPool, released once the message is read
+		final int length;
+
+		Message(int src, byte type, byte[] payload, int length)
+		{
+			this.src = src;
+			this.type = type;
+			this.payload = payload;
+			this.length = length;
+		}
+
+		// Creates a message from a pooled copy of part of an array
+		Message(int src, byte type, byte[] buf, int off, int length)
+		{
+			this(src, type, BufferPool.acquire(length), length);
+			System.arraycopy(buf, off, payload, 0, length);
+		}
+	}
+
+	// Receive started before its message arrived
+	private static final class Receive
+	{
+		final int src;
+		final CompletableFuture<Message> done = new CompletableFuture<>();
+
+		Receive(int src)
+		{
+			this.src = src;
+		}
+	}
+
+	/**
+	 * Messages of one tag that have not been received yet, in arrival order,
+	 * and receives of that tag still waiting for a message. At most one of
+	 * them is non-empty for any given source.
+	 */
+	private static final class Mailbox
+	{
+		final LinkedList<Message> q = new LinkedList<>();
+		final LinkedList<Receive> waiting = new LinkedList<>();
+		boolean dead = false;
+
+		boolean isEmpty()
+		{
+			return q.isEmpty() && waiting.isEmpty();
+		}
+	}
+
+	public String[] init(String[] argv)
+	{
+		try
+		{
+			List<InetSocketAddress> hosts = hosts();
+			size = hosts.size();
+			rank = Integer.getInteger("dstream.rank", -1);
+			if (rank < 0 || rank >= size)
+				throw new IllegalArgumentException("SocketCommunicator: dstream.rank must be between 0 and " + (size - 1));
+			conns = new Connection[size];
+			fins = new CountDownLatch(size - 1);
+			// Listen before connecting, so that higher ranks can connect to us
+			ServerSocketChannel server = ServerSocketChannel.open();
+			server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			server.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER);
+			server.bind(new InetSocketAddress(hosts.get(rank).getPort()), size);
+			for (int i = 0; i < rank; i++)
+				conns[i] = new Connection(i, connect(hosts.get(i)));
+			for (int i = rank + 1; i < size; i++)
+			{
+				SocketChannel ch = server.accept();
+				configure(ch);
+				ByteBuffer b = ByteBuffer.allocate(4);
+				while (b.hasRemaining())
+					if (ch.read(b) < 0)
+						throw new EOFException("SocketCommunicator: connection closed during handshake");
+				b.flip();
+				int src = b.getInt();
+				conns[src] = new Connection(src, ch);
+			}
+			server.close();
+			selector = Selector.open();
+			for (Connection c: conns)
+				if (c != null)
+					c.ch.register(selector, SelectionKey.OP_READ, c);
+			receiver = new Thread(this::receive, "SocketCommunicator");
+			receiver.setDaemon(true);
+			receiver.start();
+		}
+		catch (IOException | InterruptedException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return argv;
+	}
+
+	private static List<InetSocketAddress> hosts() throws IOException
+	{
+		List<String> entries;
+		String file = System.getProperty("dstream.hostfile");
+		if (file != null)
+			entries = Files.readAllLines(Paths.get(file));
+		else
+			entries = Arrays.asList(System.getProperty("dstream.hosts", "").split(","));
+		List<InetSocketAddress> hosts = new ArrayList<>();
+		for (String e: entries)
+		{
+			e = e.trim();
+			if (e.isEmpty() || e.startsWith("#"))
+				continue;
+			int colon = e.lastIndexOf(':');
+			if (colon < 0)
+				throw new IllegalArgumentException("SocketCommunicator: expected host:port, got " + e);
+			hosts.add(new InetSocketAddress(e.substring(0, colon), Integer.parseInt(e.substring(colon + 1))));
+		}
+		if (hosts.isEmpty())
+			throw new IllegalArgumentException("SocketCommunicator: set dstream.hosts or dstream.hostfile");
+		return hosts;
+	}
+
+	private static void configure(SocketChannel ch) throws IOException
+	{
+		ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		ch.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER);
+		ch.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER);
+	}
+
+	// Connects to a lower rank, retrying until it is listening
+	private SocketChannel connect(InetSocketAddress addr) throws IOException, InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+		while (true)
+		{
+			SocketChannel ch = SocketChannel.open();
+			configure(ch);
+			try
+			{
+				ch.connect(addr);
+			}
+			catch (ConnectException e)
+			{
+				ch.close();
+				if (System.currentTimeMillis() > deadline)
+					throw e;
+				Thread.sleep(100);
+				continue;
+			}
+			ByteBuffer b = ByteBuffer.allocate(4);
+			b.putInt(rank);
+			b.flip();
+			while (b.hasRemaining())
+				ch.write(b);
+			return ch;
+		}
+	}
+
+	public void cleanup()
+	{
+		try
+		{
+			// Wait until every node has finished sending before closing
+			for (Connection c: conns)
+				if (c != null)
+					send(c, 0, FIN, new byte[0], 0, 0);
+			fins.await();
+			for (Connection c: conns)
+				if (c != null)
+					c.ch.shutdownOutput();
+			receiver.join();
+			for (Connection c: conns)
+				if (c != null)
+				{
+					c.writable.close();
+					c.ch.close();
+				}
+			selector.close();
+		}
+		catch (IOException | InterruptedException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	public int getRank()
+	{
+		return rank;
+	}
+
+	public int getSize()
+	{
+		return size;
+	}
+
+	// Receiver thread: reads messages from all connections until they are closed
+	private void receive()
+	{
+		int open = 0;
+		for (Connection c: conns)
+			if (c != null)
+				open++;
+		try
+		{
+			while (open > 0)
+			{
+				selector.select();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext())
+				{
+					SelectionKey key = it.next();
+					it.remove();
+					Connection c = (Connection) key.attachment();
+					if (c.ch.read(c.in) < 0)
+					{
+						key.cancel();
+						open--;
+						continue;
+					}
+					c.in.flip();
+					parse(c);
+					c.in.compact();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	// Extracts complete messages from a connection's input buffer
+	private void parse(Connection c)
+	{
+		ByteBuffer in = c.in;
+		while (true)
+		{
+			if (c.payload == null)
+			{
+				if (in.remaining() < HEADER)
+					return;
+				c.tag = in.getInt();
+				c.type = in.get();
+				c.length = in.getInt();
+				c.payload = BufferPool.acquire(c.length);
+				c.pos = 0;
+			}
+			int n = Math.min(in.remaining(), c.length - c.pos);
+			in.get(c.payload, c.pos, n);
+			c.pos += n;
+			if (c.pos < c.length)
+				return;
+			if (c.type == FIN)
+			{
+				fins.countDown();
+				BufferPool.release(c.payload);
+			}
+			else
+				deliver(new Message(c.rank, c.type, c.payload, c.length), c.tag);
+			c.payload = null;
+		}
+	}
+
+	// Hands a message to the first waiting receive for its source, or queues it
+	private void deliver(Message msg, int tag)
+	{
+		Receive r = null;
+		while (true)
+		{
+			Mailbox m = mailboxes.computeIfAbsent(tag, t -> new Mailbox());
+			synchronized (m)
+			{
+				if (m.dead)
+					continue;
+				for (Iterator<Receive> it = m.waiting.iterator(); it.hasNext(); )
+				{
+					Receive w = it.next();
+					if (w.src == ANY_SOURCE || w.src == msg.src)
+					{
+						it.remove();
+						r = w;
+						break;
+					}
+				}
+				if (r == null)
+					m.q.add(msg);
+				else
+				{
+					CommMetrics.received(msg.src, tag, msg.length, m.q.size());
+					if (m.isEmpty())
+					{
+						m.dead = true;
+						mailboxes.remove(tag, m);
+					}
+				}
+			}
+			break;
+		}
+		if (r != null)
+			r.done.complete(msg);
+	}
+
+	// Delivers a message sent to this node
+	private void sendSelf(Message msg, int tag)
+	{
+		CommMetrics.sent(rank, tag, msg.length);
+		deliver(msg, tag);
+	}
+
+	// Starts a receive, taking a queued message if there is one
+	private CompletableFuture<Message> receive(int src, int tag)
+	{
+		while (true)
+		{
+			Mailbox m = mailboxes.computeIfAbsent(tag, t -> new Mailbox());
+			synchronized (m)
+			{
+				if (m.dead)
+					continue;
+				for (Iterator<Message> it = m.q.iterator(); it.hasNext(); )
+				{
+					Message msg = it.next();
+					if (src == ANY_SOURCE || msg.src == src)
+					{
+						it.remove();
+						CommMetrics.received(msg.src, tag, msg.length, m.q.size());
+						// Remove mailboxes of finished operations
+						if (m.isEmpty())
+						{
+							m.dead = true;
+							mailboxes.remove(tag, m);
+						}
+						return CompletableFuture.completedFuture(msg);
+					}
+				}
+				Receive r = new Receive(src);
+				m.waiting.add(r);
+				return r.done;
+			}
+		}
+	}
+
+	private Message take(int src, int tag)
+	{
+		CompletableFuture<Message> f = receive(src, tag);
+		if (f.isDone())
+			return f.join();
+		long start = System.nanoTime();
+		Message msg = f.join();
+		CommMetrics.waited(tag, System.nanoTime() - start);
+		return msg;
+	}
+
+	// Writes the output buffer to the socket, waiting if the socket buffer is full
+	private static void drain(Connection c) throws IOException
+	{
+		c.out.flip();
+		while (c.out.hasRemaining())
+		{
+			if (c.ch.write(c.out) == 0)
+			{
+				c.writable.select();
+				c.writable.selectedKeys().clear();
+			}
+		}
+		c.out.clear();
+	}
+
+	private static void header(Connection c, int tag, byte type, int length) throws IOException
+	{
+		if (type != FIN)
+			CommMetrics.sent(c.rank, tag, length);
+		if (c.out.remaining() < HEADER)
+			drain(c);
+		c.out.putInt(tag);
+		c.out.put(type);
+		c.out.putInt(length);
+	}
+
+	private static void send(Connection c, int tag, byte type, byte[] buf, int off, int len) throws IOException
+	{
+		synchronized (c)
+		{
+			header(c, tag, type, len);
+			while (len > 0)
+			{
+				if (!c.out.hasRemaining())
+					drain(c);
+				int n = Math.min(len, c.out.remaining());
+				c.out.put(buf, off, n);
+				off += n;
+				len -= n;
+			}
+			drain(c);
+		}
+	}
+
+	private void send(byte[] buf, int count, int dst, int tag, byte type)
+	{
+		if (dst == rank)
+		{
+			sendSelf(new Message(rank, type, buf, 0, count), tag);
+			return;
+		}
+		try
+		{
+			send(conns[dst], tag, type, buf, 0, count);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	public void sendObject(Object obj, int dst, int tag)
+	{
+		BufferPool.Output bos = new BufferPool.Output(512);
+		try
+		{
+			ObjectOutputStream os = ObjectStreams.output(bos);
+			os.writeObject(obj);
+			os.flush();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+		send(bos.array(), bos.size(), dst, tag, OBJECT);
+		BufferPool.release(bos.array());
+	}
+
+	private static Object toObject(Message msg)
+	{
+		try
+		{
+			return ObjectStreams.input(new ByteArrayInputStream(msg.payload, 0, msg.length)).readObject();
+		}
+		catch (IOException | ClassNotFoundException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+		finally
+		{
+			BufferPool.release(msg.payload);
+		}
+		return null;
+	}
+
+	public Object recvObject(int tag)
+	{
+		return toObject(take(ANY_SOURCE, tag));
+	}
+
+	public int recvObject(Object[] obj, int tag)
+	{
+		Message msg = take(ANY_SOURCE, tag);
+		obj[0] = toObject(msg);
+		return msg.src;
+	}
+
+	public Object recvObject(int src, int tag)
+	{
+		return toObject(take(src, tag));
+	}
+
+	public void sendInt(int n, int dst, int tag)
+	{
+		send(ByteBuffer.allocate(4).putInt(n).array(), 4, dst, tag, INT);
+	}
+
+	private static int toInt(Message msg)
+	{
+		int n = ByteBuffer.wrap(msg.payload).getInt();
+		BufferPool.release(msg.payload);
+		return n;
+	}
+
+	public int recvInt(int src, int tag)
+	{
+		return toInt(take(src, tag));
+	}
+
+	public void sendByteArray(byte[] buf, int count, int dst, int tag)
+	{
+		send(buf, count, dst, tag, BYTES);
+	}
+
+	private static byte[] toByteArray(Message msg)
+	{
+		byte[] buf = Arrays.copyOf(msg.payload, msg.length);
+		BufferPool.release(msg.payload);
+		return buf;
+	}
+
+	public byte[] recvByteArray(int tag)
+	{
+		return toByteArray(take(ANY_SOURCE, tag));
+	}
+
+	@Override
+	public ByteBuffer recvBuffer(int tag)
+	{
+		Message msg = take(ANY_SOURCE, tag);
+		return ByteBuffer.wrap(msg.payload, 0, msg.length);
+	}
+
+	public void sendIntArray(int[] buf, int count, int dst, int tag)
+	{
+		if (dst == rank)
+		{
+			byte[] b = BufferPool.acquire(count * 4);
+			ByteBuffer.wrap(b).asIntBuffer().put(buf, 0, count);
+			sendSelf(new Message(rank, INTS, b, count * 4), tag);
+			return;
+		}
+		Connection c = conns[dst];
+		try
+		{
+			synchronized (c)
+			{
+				header(c, tag, INTS, count * 4);
+				for (int off = 0; off < count; )
+				{
+					if (c.out.remaining() < 4)
+						drain(c);
+					int n = Math.min(count - off, c.out.remaining() / 4);
+					c.out.asIntBuffer().put(buf, off, n);
+					c.out.position(c.out.position() + n * 4);
+					off += n;
+				}
+				drain(c);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private static int[] toIntArray(Message msg)
+	{
+		int[] buf = new int[msg.length / 4];
+		ByteBuffer.wrap(msg.payload, 0, msg.length).asIntBuffer().get(buf);
+		BufferPool.release(msg.payload);
+		return buf;
+	}
+
+	public int[] recvIntArray(int tag)
+	{
+		return toIntArray(take(ANY_SOURCE, tag));
+	}
+
+	public void sendLongArray(long[] buf, int count, int dst, int tag)
+	{
+		if (dst == rank)
+		{
+			byte[] b = BufferPool.acquire(count * 8);
+			ByteBuffer.wrap(b).asLongBuffer().put(buf, 0, count);
+			sendSelf(new Message(rank, LONGS, b, count * 8), tag);
+			return;
+		}
+		Connection c = conns[dst];
+		try
+		{
+			synchronized (c)
+			{
+				header(c, tag, LONGS, count * 8);
+				for (int off = 0; off < count; )
+				{
+					if (c.out.remaining() < 8)
+						drain(c);
+					int n = Math.min(count - off, c.out.remaining() / 8);
+					c.out.asLongBuffer().put(buf, off, n);
+					c.out.position(c.out.position() + n * 8);
+					off += n;
+				}
+				drain(c);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	public long[] recvLongArray(int tag)
+	{
+		return recvLongArray(ANY_SOURCE, tag);
+	}
+
+	private static long[] toLongArray(Message msg)
+	{
+		long[] buf = new long[msg.length / 8];
+		ByteBuffer.wrap(msg.payload, 0, msg.length).asLongBuffer().get(buf);
+		BufferPool.release(msg.payload);
+		return buf;
+	}
+
+	public long[] recvLongArray(int src, int tag)
+	{
+		return toLongArray(take(src, tag));
+	}
+
+	public void sendDoubleArray(double[] buf, int count, int dst, int tag)
+	{
+		if (dst == rank)
+		{
+			byte[] b = BufferPool.acquire(count * 8);
+			ByteBuffer.wrap(b).asDoubleBuffer().put(buf, 0, count);
+			sendSelf(new Message(rank, DOUBLES, b, count * 8), tag);
+			return;
+		}
+		Connection c = conns[dst];
+		try
+		{
+			synchronized (c)
+			{
+				header(c, tag, DOUBLES, count * 8);
+				for (int off = 0; off < count; )
+				{
+					if (c.out.remaining() < 8)
+						drain(c);
+					int n = Math.min(count - off, c.out.remaining() / 8);
+					c.out.asDoubleBuffer().put(buf, off, n);
+					c.out.position(c.out.position() + n * 8);
+					off += n;
+				}
+				drain(c);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	public double[] recvDoubleArray(int tag)
+	{
+		return recvDoubleArray(ANY_SOURCE, tag);
+	}
+
+	private static double[] toDoubleArray(Message msg)
+	{
+		double[] buf = new double[msg.length / 8];
+		ByteBuffer.wrap(msg.payload, 0, msg.length).asDoubleBuffer().get(buf);
+		BufferPool.release(msg.payload);
+		return buf;
+	}
+
+	public double[] recvDoubleArray(int src, int tag)
+	{
+		return toDoubleArray(take(src, tag));
+	}
+
+	@Override
+	public CompletableFuture<Object> irecvObject(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), SocketCommunicator::toObject);
+	}
+
+	@Override
+	public CompletableFuture<Integer> irecvInt(int src, int tag)
+	{
+		return decode(receive(src, tag), SocketCommunicator::toInt);
+	}
+
+	@Override
+	public CompletableFuture<byte[]> irecvByteArray(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), SocketCommunicator::toByteArray);
+	}
+
+	@Override
+	public CompletableFuture<int[]> irecvIntArray(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), SocketCommunicator::toIntArray);
+	}
+
+	@Override
+	public CompletableFuture<long[]> irecvLongArray(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), SocketCommunicator::toLongArray);
+	}
+
+	@Override
+	public CompletableFuture<double[]> irecvDoubleArray(int tag)
+	{
+		return decode(receive(ANY_SOURCE, tag), SocketCommunicator::toDoubleArray);
+	}
+}
@@ -4,6 +4,7 @@ import java.io.*;
 import java.nio.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
 import java.util.function.*;
@@ -31,8 +32,10 @@ class SortedOps
 		final int rank = upstream.grp.indexOf(ComputeNode.getSelf());
 		// Sample data to establish bucket ranges
 		int localSamples = SAMPLES / buckets + (rank < SAMPLES % buckets ? 1 : 0);
-		int bcastTag = ComputeNode.nextTag(upstream.grp);
-		int distribTag = ComputeNode.nextTag(upstream.grp);
+		int bcastTag = ComputeNode.nextTag(upstream.grp, "sorted.bounds");
+		int distribTag = ComputeNode.nextTag(upstream.grp, "sorted");
+		int creditTag = ComputeNode.nextTag(upstream.grp, "sorted.credit");
+		BatchSender<T> out = new BatchSender<T>(upstream.grp, distribTag, creditTag, Codec.getDefault());
 		AtomicLong count = new AtomicLong(0);
 		AtomicLong count2 = new AtomicLong(0);
 		List<T> samples = new ArrayList<T>(SAMPLES);
@@ -41,7 +44,7 @@ class SortedOps
 		Lock rlock = rwlock.readLock();
 		Lock wlock = rwlock.writeLock();
 		wlock.lock();
-		Thread sender = new Thread(() ->
+		Future<?> sender = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
 		{
 			upstream.localForEach(e ->
 			{
@@ -52,8 +55,8 @@ class SortedOps
 					int pos = Arrays.binarySearch(search, e, null);
 					if (pos < 0)
 						pos = -pos - 1;
-					ComputeNode.comm.sendObject(e, upstream.grp.get(pos).rank, distribTag);
 					rlock.unlock();
+					out.add(e, pos);
 				}
 				else // Broadcast samples
 				{
@@ -67,10 +70,8 @@ class SortedOps
 			if (count.get() < localSamples)
 				for (int i = 0; i < buckets; i++)
 					ComputeNode.comm.sendObject(null, upstream.grp.get(i).rank, bcastTag);
-			for (int i = 0; i < buckets; i++)
-				ComputeNode.comm.sendObject(null, upstream.grp.get(i).rank, distribTag);
-		});
-		sender.start();
+			out.finish(upstream.grp);
+		}));
 		int end = 0;
 		while (true)
 		{
@@ -96,9 +97,10 @@ class SortedOps
 		samples = null;
 		ours.clear();
 		ours = null;
-		// Sort rest of data
-		end = 0;
-		while (true)
+		// Sort rest of data, received in batches under credit-based flow control
+		DistributedSpliterator<T> in = new DistributedSpliterator<T>(distribTag, creditTag, buckets, Codec.getDefault(), () -> CommExecutor.join(sender));
+		SortedSpliterator.Holder<T> hold = new SortedSpliterator.Holder<>();
+		while (in.tryAdvance(hold))
 		{
 			if (li.size() > 16 && MemoryMonitor.lowMemory())
 			{
@@ -109,11 +111,7 @@ class SortedOps
 				MemoryMonitor.reclaimMemory();
 				li = new ArrayList<>(BATCH);
 			}
-			T obj = (T) ComputeNode.comm.recvObject(distribTag);
-			if (obj != null)
-				li.add(obj);
-			else if (++end >= buckets)
-				break;
+			li.add(hold.obj);
 		}
 		if (!li.isEmpty())
 		{
@@ -121,16 +119,7 @@ class SortedOps
 			state.add(li);
 			li = null;
 		}
-		try
-		{
-			li = null;
-			sender.join();
-		}
-		catch (InterruptedException e)
-		{
-			e.printStackTrace();
-			System.exit(1);
-		}
+		li = null;
 		Spliterator<T> sp = state.merge();
 		if (sp != null)
 			return DistributedStreamSupport.stream(sp, parallel);
@@ -138,6 +127,275 @@ class SortedOps
 			return DistributedStream.<T>empty().parallel();
 		return DistributedStream.<T>empty();
 	}
+
+	private static final int RUN = Integer.getInteger("dstream.join.run", 1 << 18); // Most items per sorted run
+
+	/**
+	 * Joins two streams by sorting both on their keys.
+	 * Each node first sorts its local items of each side into runs of at
+	 * most dstream.join.run items (default 262144), spilled to disk (see
+	 * MergeState), while drawing a random sample of their keys, weighted
+	 * by the number of items it stands for. The samples of all nodes are
+	 * gathered with combine(), and the splitters chosen at equal steps of
+	 * their weight range-partition both sides alike, so that equal keys
+	 * meet on the same node, which sorts
+	 * what it receives into runs again, then merges the runs of both sides
+	 * and joins them in a single pass. Only a run and the items of the
+	 * other stream sharing the current key are held in memory at a time.
+	 */
+	public static <T, U, K, R> DistributedStream<R> sortMergeJoin(ReferencePipeline<T> upstream, DistributedStream<U> other,
+		Function<? super T, ? extends K> keyFn, Function<? super U, ? extends K> otherKeyFn, Comparator<? super K> cmp,
+		BiFunction<? super T, ? super U, ? extends R> joiner)
+	{
+		final ComputeGroup grp = upstream.grp;
+		final int buckets = grp.size();
+		final int rank = grp.indexOf(ComputeNode.getSelf());
+		int localSamples = SAMPLES / buckets + (rank < SAMPLES % buckets ? 1 : 0);
+		int leftTag = ComputeNode.nextTag(grp, "sortMergeJoin");
+		int leftCreditTag = ComputeNode.nextTag(grp, "sortMergeJoin.credit");
+		int rightTag = ComputeNode.nextTag(grp, "sortMergeJoin");
+		int rightCreditTag = ComputeNode.nextTag(grp, "sortMergeJoin.credit");
+		Comparator<T> leftCmp = Comparator.comparing(keyFn, cmp);
+		Comparator<U> rightCmp = Comparator.comparing(otherKeyFn, cmp);
+		// Sort local items into runs, sampling their keys
+		ArrayList<Sample<K>> samples = new ArrayList<>(2 * localSamples);
+		MergeState<T> leftLocal = spill(upstream, keyFn, leftCmp, samples, localSamples);
+		MergeState<U> rightLocal = spill(other, otherKeyFn, rightCmp, samples, localSamples);
+		// Gather the samples of all nodes, in group order, and choose splitters
+		// at equal steps of their total weight, the same on all nodes
+		List<Sample<K>> all = new ArrayList<>(DistributeOps.combine(samples, grp, ArrayList::addAll));
+		all.sort(Comparator.comparing(e -> e.key, cmp));
+		double total = 0;
+		for (Sample<K> e: all)
+			total += e.weight;
+		Object[] search = new Object[all.isEmpty() ? 0 : buckets - 1];
+		double sum = 0;
+		int j = 0;
+		for (int i = 1; i <= search.length; i++)
+		{
+			while (j < all.size() - 1 && sum + all.get(j).weight < i * total / buckets)
+				sum += all.get(j++).weight;
+			search[i - 1] = all.get(j).key;
+		}
+		samples = null;
+		all = null;
+		// Send both sides in key order, and sort what is received into runs
+		BatchSender<T> left = new BatchSender<T>(grp, leftTag, leftCreditTag, Codec.getDefault());
+		BatchSender<U> right = new BatchSender<U>(grp, rightTag, rightCreditTag, Codec.getDefault());
+		Future<?> leftTask = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
+			partition(leftLocal.merge(), keyFn, (K[]) search, cmp, left, grp)));
+		Future<?> rightTask = CommExecutor.get().submit(ComputeNode.comm.bind(() ->
+			partition(rightLocal.merge(), otherKeyFn, (K[]) search, cmp, right, grp)));
+		MergeState<T> leftRuns = spill(new DistributedSpliterator<T>(leftTag, leftCreditTag, buckets, Codec.getDefault(),
+			() -> CommExecutor.join(leftTask)), leftCmp);
+		MergeState<U> rightRuns = spill(new DistributedSpliterator<U>(rightTag, rightCreditTag, buckets, Codec.getDefault(),
+			() -> CommExecutor.join(rightTask)), rightCmp);
+		MergeJoinSpliterator<T,U,K,R> sp = new MergeJoinSpliterator<>(leftRuns.merge(), rightRuns.merge(), keyFn, otherKeyFn, cmp, joiner);
+		return new ReferencePipeline<R>(StreamSupport.stream(sp, upstream.isParallel()), grp);
+	}
+
+	// Key sampled from one side of a sort-merge join, standing for weight items of that side
+	private static final class Sample<K> implements Serializable
+	{
+		final K key;
+		final double weight;
+
+		Sample(K key, double weight)
+		{
+			this.key = key;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Sorts the local items of one side of a sort-merge join into runs.
+	 * Also draws a uniform sample of their keys, by reservoir sampling, and
+	 * weights it by the number of local items, so that the samples of sides
+	 * and nodes of different sizes count in proportion to their items.
+	 * @param samples Samples drawn so far, to which at most max keys are added.
+	 */
+	private static <E, K> MergeState<E> spill(DistributedStream<E> s, Function<? super E, ? extends K> keyFn,
+		Comparator<? super E> cmp, List<Sample<K>> samples, int max)
+	{
+		MergeState<E> state = new MergeState<>(cmp);
+		List<K> reservoir = new ArrayList<>(max);
+		Object lock = new Object();
+		long[] seen = new long[1];
+		List<E>[] run = new List[] { new ArrayList<E>(BATCH) };
+		s.localForEach(e ->
+		{
+			List<E> full = null;
+			synchronized (lock)
+			{
+				long n = seen[0]++;
+				if (reservoir.size() < max)
+					reservoir.add(keyFn.apply(e));
+				else
+				{
+					long j = ThreadLocalRandom.current().nextLong(n + 1);
+					if (j < max)
+						reservoir.set((int) j, keyFn.apply(e));
+				}
+				run[0].add(e);
+				if (run[0].size() >= RUN || (run[0].size() > 16 && MemoryMonitor.lowMemory()))
+				{
+					full = run[0];
+					run[0] = new ArrayList<E>(BATCH);
+				}
+			}
+			// Sort and write out the run without holding up the other threads
+			if (full != null)
+			{
+				full.sort(cmp);
+				state.add(full);
+			}
+		});
+		if (!run[0].isEmpty())
+		{
+			run[0].sort(cmp);
+			state.add(run[0]);
+		}
+		for (K key: reservoir)
+			samples.add(new Sample<K>(key, (double) seen[0] / reservoir.size()));
+		return state;
+	}
+
+	// Sends items in key order to the nodes of their key ranges
+	private static <E, K> void partition(Spliterator<E> sp, Function<? super E, ? extends K> keyFn, K[] search,
+		Comparator<? super K> cmp, BatchSender<E> out, ComputeGroup grp)
+	{
+		if (sp != null)
+			sp.forEachRemaining(e ->
+			{
+				int pos = Arrays.binarySearch(search, keyFn.apply(e), cmp);
+				out.add(e, (pos >= 0 ? pos : -pos - 1));
+			});
+		out.finish(grp);
+	}
+
+	// Sorts the received items of one side of a sort-merge join into runs
+	private static <E> MergeState<E> spill(Spliterator<E> sp, Comparator<? super E> cmp)
+	{
+		MergeState<E> state = new MergeState<>(cmp);
+		ArrayList<E> run = new ArrayList<>(BATCH);
+		while (sp.tryAdvance(run::add))
+		{
+			boolean lowMemory = (run.size() > 16 && MemoryMonitor.lowMemory());
+			if (run.size() >= RUN || lowMemory)
+			{
+				run.sort(cmp);
+				state.add(run);
+				run.clear();
+				if (lowMemory)
+				{
+					System.err.println(ComputeNode.getSelf().getName() + ": Spilling run to disk");
+					MemoryMonitor.reclaimMemory();
+				}
+			}
+		}
+		if (!run.isEmpty())
+		{
+			run.sort(cmp);
+			state.add(run);
+		}
+		return state;
+	}
+}
+
+/**
+ * Joins the items of two spliterators sorted by key.
+ * Items of the right side with the current key are kept in a list, which
+ * is joined with each item of the left side with that key.
+ */
+class MergeJoinSpliterator<T, U, K, R> implements Spliterator<R>
+{
+	private static final int BATCH = 256;
+
+	private final Spliterator<T> left;
+	private final Spliterator<U> right;
+	private final Function<? super T, ? extends K> keyFn;
+	private final Function<? super U, ? extends K> otherKeyFn;
+	private final Comparator<? super K> cmp;
+	private final BiFunction<? super T, ? super U, ? extends R> joiner;
+	private final SortedSpliterator.Holder<T> leftItem = new SortedSpliterator.Holder<>();
+	private final SortedSpliterator.Holder<U> rightItem = new SortedSpliterator.Holder<>();
+	private boolean rightValid; // Whether rightItem holds the next right item
+	private K groupKey = null;
+	private final List<U> group = new ArrayList<>();
+	private final LinkedList<R> out = new LinkedList<>(); // Joined items not yet returned
+
+	/**
+	 * @param left Left items sorted by key, or NULL if there are none.
+	 * @param right Right items sorted by key, or NULL if there are none.
+	 */
+	public MergeJoinSpliterator(Spliterator<T> left, Spliterator<U> right, Function<? super T, ? extends K> keyFn,
+		Function<? super U, ? extends K> otherKeyFn, Comparator<? super K> cmp, BiFunction<? super T, ? super U, ? extends R> joiner)
+	{
+		this.left = (left != null ? left : Spliterators.<T>emptySpliterator());
+		this.right = (right != null ? right : Spliterators.<U>emptySpliterator());
+		this.keyFn = keyFn;
+		this.otherKeyFn = otherKeyFn;
+		this.cmp = cmp;
+		this.joiner = joiner;
+		rightValid = this.right.tryAdvance(rightItem);
+	}
+
+	// Joins the next left item, returning false if there are no more
+	private boolean joinNext()
+	{
+		if (!left.tryAdvance(leftItem))
+			return false;
+		T t = leftItem.obj;
+		K key = keyFn.apply(t);
+		if (group.isEmpty() || cmp.compare(groupKey, key) != 0)
+		{
+			group.clear();
+			while (rightValid && cmp.compare(otherKeyFn.apply(rightItem.obj), key) < 0)
+				rightValid = right.tryAdvance(rightItem);
+			while (rightValid && cmp.compare(otherKeyFn.apply(rightItem.obj), key) == 0)
+			{
+				group.add(rightItem.obj);
+				rightValid = right.tryAdvance(rightItem);
+			}
+			groupKey = key;
+		}
+		for (U u: group)
+			out.add(joiner.apply(t, u));
+		return true;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super R> action)
+	{
+		while (out.isEmpty())
+			if (!joinNext())
+				return false;
+		action.accept(out.poll());
+		return true;
+	}
+
+	@Override
+	public Spliterator<R> trySplit()
+	{
+		List<R> li = new ArrayList<R>(BATCH);
+		for (int i = 0; i < BATCH && tryAdvance(li::add); i++)
+			;
+		if (li.size() > 0)
+			return Spliterators.spliterator(li.iterator(), li.size(), characteristics() | SIZED);
+		return null;
+	}
+
+	@Override
+	public int characteristics()
+	{
+		return IMMUTABLE;
+	}
+
+	@Override
+	public long estimateSize()
+	{
+		return Long.MAX_VALUE;
+	}
 }
 
 class MergeItem<T>
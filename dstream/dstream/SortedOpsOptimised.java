@@ -24,10 +24,13 @@ class SortedOpsOptimised
 	{
 		final int rank = upstream.grp.indexOf(ComputeNode.getSelf());
 		final int buckets = upstream.grp.size();
-		int bcastTag = ComputeNode.nextTag(upstream.grp);
+		int bcastTag = ComputeNode.nextTag(upstream.grp, "sorted.bounds");
 		int[] distribTag = new int[buckets];
 		for (int i = 0; i < buckets; i++)
-			distribTag[i] = ComputeNode.nextTag(upstream.grp);
+			distribTag[i] = ComputeNode.nextTag(upstream.grp, "sorted");
+		int[] creditTag = new int[buckets]; // Credit granted by each receiver
+		for (int i = 0; i < buckets; i++)
+			creditTag[i] = ComputeNode.nextTag(upstream.grp, "sorted.credit");
 		// Get all local items and sort
 		ArrayList<T> local = upstream.localCollect(Collectors.toCollection(() -> new ArrayList<>()));
 		local.sort(cmp);
@@ -56,51 +59,130 @@ class SortedOpsOptimised
 			}
 		}
 		pos[buckets - 1] = local.size();
-		// Send values to other nodes
-		Thread[] th = new Thread[buckets];
+		// Send values to other nodes, without waiting for the transfers
+		CompletableFuture<Void>[] sent = new CompletableFuture[buckets];
 		for (int b = 0; b < buckets; b++)
 		{
 			if (b == rank)
+				sent[b] = CompletableFuture.completedFuture(null);
+			else
 			{
-				th[b] = null;
-				continue;
+				int dst = upstream.grp.get(b).rank;
+				sent[b] = new ChunkSender((b > 0 ? pos[b - 1] : 0), pos[b], SortedSpliteratorOptimised.CHUNK, (from, n) ->
+				{
+					Object[] chunk = new Object[n];
+					for (int i = 0; i < n; i++)
+					{
+						chunk[i] = local.get(from + i);
+						local.set(from + i, null);
+					}
+					return ComputeNode.comm.isendObject(chunk, dst, distribTag[rank]);
+				}, dst, creditTag[b]).start();
 			}
-			final int t = b;
-			th[t] = new Thread(() ->
+		}
+		// Receive values in spliterator
+		SortedSpliteratorOptimised<T> sp = new SortedSpliteratorOptimised<>(local, (rank == 0 ? 0 : pos[rank - 1]), pos[rank], rank, upstream.grp, distribTag, creditTag[rank], CompletableFuture.allOf(sent), cmp);
+		return DistributedStreamSupport.stream(sp, upstream.isParallel());
+	}
+
+	/**
+	 * Sends items [from, to) of a sorted array or list in chunks, followed by an empty chunk.
+	 * At most CREDITS chunks are sent but not yet taken by the receiver, which
+	 * grants credit back on creditTag with CreditGrant. Each step runs on the
+	 * rank's executor once the previous send or credit receive completes, so
+	 * no thread is blocked, and chunks are never read on the thread that
+	 * completed the transfer, e.g. the progress thread of MPJCommunicator.
+	 */
+	static final class ChunkSender
+	{
+		private int from;
+		private final int to;
+		private final int chunkSize;
+		private final BiFunction<Integer, Integer, CompletableFuture<Void>> send;
+		private final int dst;
+		private final CreditGate credit;
+		private final Executor executor;
+		private boolean acquired = false;
+		private boolean ended = false;
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		/**
+		 * @param send Function sending the chunk of the given number of
+		 * items starting at the given index to dst, in the array type of
+		 * the items, and returning the future of the send.
+		 */
+		ChunkSender(int from, int to, int chunkSize, BiFunction<Integer, Integer, CompletableFuture<Void>> send, int dst, int creditTag)
+		{
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+			this.send = send;
+			this.dst = dst;
+			credit = new CreditGate(creditTag);
+			executor = ComputeNode.comm.executor();
+		}
+
+		/**
+		 * @return Future completed when all chunks have been sent and taken.
+		 */
+		CompletableFuture<Void> start()
+		{
+			run();
+			return done;
+		}
+
+		private void run()
+		{
+			while (true)
 			{
-				int i = (t > 0 ? pos[t - 1] : 0);
-				ComputeNode n = upstream.grp.get(t);
-				while (i < pos[t])
+				if (ended)
+				{
+					credit.drainAsync(dst).thenRun(() -> done.complete(null));
+					return;
+				}
+				int n = Math.min(to - from, chunkSize);
+				if (n > 0 && !acquired)
 				{
-					ComputeNode.comm.sendObject(local.get(i), n.rank, distribTag[rank]);
-					local.set(i, null);
-					i++;
+					acquired = true;
+					CompletableFuture<Void> c = credit.acquireAsync(dst);
+					if (!c.isDone())
+					{
+						c.thenRunAsync(this::run, executor);
+						return;
+					}
+				}
+				acquired = false;
+				CompletableFuture<Void> f = send.apply(from, n);
+				from += n;
+				ended = (n == 0);
+				if (!f.isDone())
+				{
+					f.thenRunAsync(this::run, executor);
+					return;
 				}
-				ComputeNode.comm.sendObject(null, n.rank, distribTag[rank]);
-			});
-			th[t].start();
+			}
 		}
-		// Receive values in spliterator
-		SortedSpliteratorOptimised<T> sp = new SortedSpliteratorOptimised<>(local, (rank == 0 ? 0 : pos[rank - 1]), pos[rank], rank, distribTag, th, cmp);
-		return DistributedStreamSupport.stream(sp, upstream.isParallel());
 	}
 }
 
 class SortedSpliteratorOptimised<T> implements Spliterator<T>
 {
 	private static final int BATCH = 256;
+	static final int CHUNK = 1024; // Items per message
 
 	private ArrayList<T> local;
 	private int localIndex;
 	private int localTo;
 	private int rank;
+	private ComputeGroup grp;
 	private int[] distribTag;
+	private CreditGrant credit;
 	private PriorityQueue<QItem<T>> q;
-	private LinkedBlockingQueue[] tq;
+	private Object[][] chunk; // Chunk being merged per node
+	private int[] chunkIndex;
+	private CompletableFuture<Object>[] nextChunk; // Chunk being received per node
 	private QItem<T> nextItem;
-	private Thread[] sendThreads;
-	private Thread[] recvThreads;
-	private Object stop;
+	private CompletableFuture<Void> sent;
 	private Comparator<? super T> cmp;
 
 	static final class Holder<U> implements Consumer<U>
@@ -126,80 +208,61 @@ class SortedSpliteratorOptimised<T> implements Spliterator<T>
 		}
 	}
 
-	public SortedSpliteratorOptimised(ArrayList<T> local, int localFrom, int localTo, int rank, int[] distribTag, Thread[] th, Comparator<? super T> cmp)
+	public SortedSpliteratorOptimised(ArrayList<T> local, int localFrom, int localTo, int rank, ComputeGroup grp, int[] distribTag, int creditTag, CompletableFuture<Void> sent, Comparator<? super T> cmp)
 	{
 		this.local = local;
 		localIndex = localFrom;
 		this.localTo = localTo;
 		this.rank = rank;
+		this.grp = grp;
 		this.distribTag = distribTag;
-		sendThreads = th;
+		credit = new CreditGrant(creditTag);
+		this.sent = sent;
 		this.cmp = cmp;
 		q = new PriorityQueue<>(distribTag.length, Comparator.<QItem<T>, T>comparing(e -> e.obj, cmp));
-		recvThreads = new Thread[distribTag.length];
-		tq = new LinkedBlockingQueue[distribTag.length];
-		stop = new Object();
+		chunk = new Object[distribTag.length][];
+		chunkIndex = new int[distribTag.length];
+		nextChunk = new CompletableFuture[distribTag.length];
 		for (int i = 0; i < distribTag.length; i++)
-		{
-			recvThreads[i] = null;
-			if (i == rank)
-				continue;
-			tq[i] = new LinkedBlockingQueue();
-			final int t = i;
-			recvThreads[i] = new Thread(() ->
-			{
-				try
-				{
-					while (true)
-					{
-						T obj = (T) ComputeNode.comm.recvObject(distribTag[t]);
-						if (obj != null)
-						{
-							tq[t].put(obj);
-							continue;
-						}
-						tq[t].put(stop);
-						break;
-					}
-				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
-					System.exit(1);
-				}
-			});
-			recvThreads[i].start();
-		}
+			if (i != rank)
+				nextChunk[i] = ComputeNode.comm.irecvObject(distribTag[i]);
 		nextItem = null;
-		try
+		for (int i = 0; i < distribTag.length; i++)
 		{
-			for (int i = 0; i < distribTag.length; i++)
-			{
-				T obj;
-				if (i != rank)
-				{
-					Object o = tq[i].take();
-					if (o != stop)
-						obj = (T) o;
-					else
-						obj = null;
-				}
-				else if (localIndex < localTo)
-					obj = local.get(localIndex++);
-				else
-					obj = null;
-				if (obj == null)
-					continue;
+			T obj = next(i);
+			if (obj != null)
 				q.add(new QItem<>(i, obj));
-			}
-			if (!q.isEmpty())
-				nextItem = q.remove();
 		}
-		catch (InterruptedException e)
+		if (!q.isEmpty())
+			nextItem = q.remove();
+	}
+
+	// Returns the next item from the specified node, or NULL if there are no more
+	private T next(int i)
+	{
+		if (i == rank)
+			return (localIndex < localTo ? local.get(localIndex++) : null);
+		Object[] c = chunk[i];
+		if (c == null || chunkIndex[i] == c.length)
 		{
-			e.printStackTrace();
-			System.exit(1);
+			if (nextChunk[i] == null)
+				return null;
+			c = (Object[]) nextChunk[i].join();
+			if (c.length == 0)
+			{
+				chunk[i] = null;
+				nextChunk[i] = null;
+				return null;
+			}
+			// Grant credit for the chunk, and receive the following one while this one is merged
+			credit.consumed(grp.get(i).rank);
+			nextChunk[i] = ComputeNode.comm.irecvObject(distribTag[i]);
+			chunk[i] = c;
+			chunkIndex[i] = 0;
 		}
+		T obj = (T) c[chunkIndex[i]];
+		c[chunkIndex[i]++] = null;
+		return obj;
 	}
 
 	@Override
@@ -220,46 +283,19 @@ class SortedSpliteratorOptimised<T> implements Spliterator<T>
 		if (nextItem != null)
 		{
 			action.accept(nextItem.obj);
-			if (nextItem.rank != rank)
-			{
-				try
-				{
-					Object o = tq[nextItem.rank].take();
-					if (o != stop)
-						nextItem.obj = (T) o;
-					else
-						nextItem.obj = null;
-				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
-					System.exit(1);
-				}
-			}
-			else if (localIndex < localTo)
-				nextItem.obj = local.get(localIndex++);
-			else
-				nextItem.obj = null;
+			nextItem.obj = next(nextItem.rank);
 			if (nextItem.obj != null)
 				q.add(nextItem);
 			nextItem = (!q.isEmpty() ? q.remove() : null);
 			return true;
 		}
 		local = null;
-		try
-		{
-			for (int i = 0; i < sendThreads.length; i++)
-				if (sendThreads[i] != null)
-					sendThreads[i].join();
-			for (int i = 0; i < recvThreads.length; i++)
-				if (recvThreads[i] != null)
-					recvThreads[i].join();
-		}
-		catch (InterruptedException e)
+		if (credit != null)
 		{
-			e.printStackTrace();
-			System.exit(1);
+			credit.finish();
+			credit = null;
 		}
+		sent.join();
 		return false;
 	}
 
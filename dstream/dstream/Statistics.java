@@ -0,0 +1,134 @@
+package dstream;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Creates the summary statistics of the elements of all nodes, from their
+ * count, sum, minimum and maximum reduced by summaryStatistics().
+ * Uses the constructors taking these values on JDKs that have them (10
+ * and later). On Java 8 the statistics of as many elements of the same
+ * extremes and sum are built instead, by combining statistics with
+ * themselves to double them, in log2(count) steps. The same is done for
+ * doubles whose sum is NaN but whose extremes are not, e.g. -Infinity and
+ * Infinity, which the constructor rejects.
+ */
+class Statistics
+{
+	private static final Constructor<IntSummaryStatistics> INT = constructor(IntSummaryStatistics.class, int.class);
+	private static final Constructor<LongSummaryStatistics> LONG = constructor(LongSummaryStatistics.class, long.class);
+	private static final Constructor<DoubleSummaryStatistics> DOUBLE = constructor(DoubleSummaryStatistics.class, double.class);
+
+	private Statistics() { } // Do not instantiate
+
+	private static <S> Constructor<S> constructor(Class<S> cls, Class<?> type)
+	{
+		try
+		{
+			// (count, min, max, sum)
+			return cls.getConstructor(long.class, type, type, (type == int.class ? long.class : type));
+		}
+		catch (NoSuchMethodException e)
+		{
+			return null;
+		}
+	}
+
+	private static <S> S create(Constructor<S> c, Object... args)
+	{
+		try
+		{
+			return c.newInstance(args);
+		}
+		catch (InvocationTargetException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException("Statistics: Cannot create " + c.getDeclaringClass().getName(), e.getCause());
+		}
+		catch (InstantiationException | IllegalAccessException e)
+		{
+			throw new IllegalStateException("Statistics: Cannot create " + c.getDeclaringClass().getName(), e);
+		}
+	}
+
+	public static IntSummaryStatistics of(long count, long sum, int min, int max)
+	{
+		if (INT != null && count > 0)
+			return create(INT, count, min, max, sum);
+		IntSummaryStatistics stats = new IntSummaryStatistics();
+		if (count == 0)
+			return stats;
+		stats.accept(min);
+		if (count > 1)
+			stats.accept(max);
+		if (count <= 2)
+			return stats;
+		// The other elements are q or q + 1, which lie between the extremes
+		long n = count - 2, q = Math.floorDiv(sum - min - max, n), r = Math.floorMod(sum - min - max, n);
+		IntSummaryStatistics low = new IntSummaryStatistics(), high = new IntSummaryStatistics();
+		low.accept((int) q);
+		high.accept((int) (q + 1));
+		times(stats, low, n - r, IntSummaryStatistics::combine);
+		times(stats, high, r, IntSummaryStatistics::combine);
+		return stats;
+	}
+
+	public static LongSummaryStatistics of(long count, long sum, long min, long max)
+	{
+		if (LONG != null && count > 0)
+			return create(LONG, count, min, max, sum);
+		LongSummaryStatistics stats = new LongSummaryStatistics();
+		if (count == 0)
+			return stats;
+		stats.accept(min);
+		if (count > 1)
+			stats.accept(max);
+		if (count <= 2)
+			return stats;
+		long n = count - 2, q = Math.floorDiv(sum - min - max, n), r = Math.floorMod(sum - min - max, n);
+		LongSummaryStatistics low = new LongSummaryStatistics(), high = new LongSummaryStatistics();
+		low.accept(q);
+		high.accept(q + 1);
+		times(stats, low, n - r, LongSummaryStatistics::combine);
+		times(stats, high, r, LongSummaryStatistics::combine);
+		return stats;
+	}
+
+	public static DoubleSummaryStatistics of(long count, double sum, double min, double max)
+	{
+		// The constructor requires all or none of sum and extremes to be NaN
+		boolean nan = Double.isNaN(sum);
+		if (DOUBLE != null && count > 0 && Double.isNaN(min) == nan && Double.isNaN(max) == nan)
+			return create(DOUBLE, count, min, max, sum);
+		DoubleSummaryStatistics stats = new DoubleSummaryStatistics();
+		if (count == 0)
+			return stats;
+		stats.accept(min);
+		if (count > 1)
+			stats.accept(max);
+		if (count <= 2)
+			return stats;
+		DoubleSummaryStatistics rest = new DoubleSummaryStatistics();
+		// If only the sum is NaN, e.g. of -Infinity and Infinity, the rest stand for elements equal to min, as a NaN element would make the extremes NaN
+		double mean = (sum - min - max) / (count - 2);
+		rest.accept(Double.isNaN(mean) && !Double.isNaN(min) ? min : mean);
+		times(stats, rest, count - 2, DoubleSummaryStatistics::combine);
+		return stats;
+	}
+
+	// Combines n times the statistics of one element into stats, doubling them
+	private static <S> void times(S stats, S one, long n, BiConsumer<S, S> combine)
+	{
+		for (; n > 0; n >>= 1)
+		{
+			if ((n & 1) != 0)
+				combine.accept(stats, one);
+			if (n > 1)
+				combine.accept(one, one);
+		}
+	}
+}
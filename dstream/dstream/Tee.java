@@ -0,0 +1,267 @@
+package dstream;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.zip.*;
+
+/**
+ * Feeds the elements of one stream to several branches, for split().
+ * The source is read once, as the branches ask for elements: the branch
+ * furthest ahead takes the next element from the source and adds it to
+ * the buffers of the others. A buffer reaching dstream.split.buffer
+ * elements (default 65536), or any buffer while memory is low (see
+ * MemoryMonitor), is spilled to disk, so that a branch can lag behind the
+ * others, e.g. when the branches are consumed one after the other.
+ * Only Serializable elements can be spilled: spilling any other element
+ * fails with an IllegalStateException, without exiting.
+ * Closed branches no longer buffer; the source is closed with the last one.
+ */
+class Tee<T>
+{
+	private static final int BUFFER = Integer.getInteger("dstream.split.buffer", 1 << 16);
+	private static final int BATCH = 1024; // Elements taken by trySplit()
+	private static final int RESET_BATCH = 128;
+	private static final Object NULL = new Object(); // Stands for NULL elements in buffers
+	private static final Object NONE = new Object(); // No element left
+
+	private final Spliterator<T> source;
+	private final Runnable closer;
+	private final Branch[] branches;
+	private int open;
+	private boolean done = false; // Source exhausted
+	private File spillDir = null;
+	private long nextFile = 0;
+
+	/**
+	 * @param source Elements to feed to the branches.
+	 * @param num Number of branches.
+	 * @param closer Called once all branches have been closed.
+	 */
+	public Tee(Spliterator<T> source, int num, Runnable closer)
+	{
+		if (num < 1)
+			throw new IllegalArgumentException("Number of streams must be positive: " + num);
+		this.source = source;
+		this.closer = closer;
+		branches = new Tee.Branch[num];
+		for (int i = 0; i < num; i++)
+			branches[i] = new Branch();
+		open = num;
+	}
+
+	public Spliterator<T> branch(int index)
+	{
+		return branches[index];
+	}
+
+	/**
+	 * Closes a branch, discarding its buffered elements.
+	 * @param index Index of the branch.
+	 */
+	public void close(int index)
+	{
+		synchronized (this)
+		{
+			Branch b = branches[index];
+			if (b.closed)
+				return;
+			b.closed = true;
+			b.discard();
+			if (--open > 0)
+				return;
+		}
+		closer.run();
+	}
+
+	// Takes the next element of a branch, or NONE if there is none
+	private synchronized Object take(Branch b)
+	{
+		Object e = b.poll();
+		if (e != NONE || done)
+			return e;
+		Object[] next = new Object[] { NONE };
+		if (!source.tryAdvance(i ->
+		{
+			for (Branch o: branches)
+				if (o != b)
+					o.offer(i);
+			next[0] = (i != null ? i : NULL);
+		}))
+			done = true;
+		return next[0];
+	}
+
+	private File newFile() throws IOException
+	{
+		if (spillDir == null)
+		{
+			spillDir = Files.createTempDirectory("split").toFile();
+			spillDir.deleteOnExit();
+		}
+		return new File(spillDir, String.valueOf(nextFile++));
+	}
+
+	private class Branch implements Spliterator<T>
+	{
+		private final ArrayDeque<Object> mem = new ArrayDeque<>();
+		private final ArrayDeque<File> files = new ArrayDeque<>(); // Spilled buffers, oldest first
+		private final ArrayDeque<Integer> counts = new ArrayDeque<>();
+		private ObjectInputStream in = null;
+		private File reading = null;
+		private int left = 0; // Elements left to read from the current file
+		boolean closed = false;
+
+		// Adds an element read from the source
+		void offer(T e)
+		{
+			if (closed)
+				return;
+			mem.add(e != null ? e : NULL);
+			if (mem.size() >= BUFFER || (mem.size() > 16 && MemoryMonitor.lowMemory()))
+				spill();
+		}
+
+		// Removes the oldest buffered element, or returns NONE if there is none
+		Object poll()
+		{
+			try
+			{
+				if (left == 0 && !files.isEmpty())
+				{
+					reading = files.remove();
+					left = counts.remove();
+					in = new ObjectInputStream(new InflaterInputStream(new FileInputStream(reading)));
+				}
+				if (left > 0)
+				{
+					Object e = in.readObject();
+					if (--left == 0)
+						closeFile();
+					return (e != null ? e : NULL);
+				}
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException("split(): Cannot read spilled elements", e);
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new IllegalStateException("split(): Cannot read spilled elements", e);
+			}
+			return (mem.isEmpty() ? NONE : mem.remove());
+		}
+
+		// Writes the buffer to disk, after any buffers spilled before
+		private void spill()
+		{
+			for (Object e: mem)
+				if (e != NULL && !(e instanceof Serializable))
+					throw notSerializable(e.getClass().getName(), null);
+			File f = null;
+			try
+			{
+				f = newFile();
+				try (ObjectOutputStream os = new ObjectOutputStream(new DeflaterOutputStream(new FileOutputStream(f), new Deflater(Deflater.BEST_SPEED))))
+				{
+					int count = 0;
+					for (Object e: mem)
+					{
+						os.writeObject(e != NULL ? e : null);
+						if (++count % RESET_BATCH == 0)
+							os.reset();
+					}
+				}
+				files.add(f);
+				counts.add(mem.size());
+				mem.clear();
+			}
+			catch (NotSerializableException e)
+			{
+				f.delete();
+				throw notSerializable(e.getMessage(), e); // A field of an element
+			}
+			catch (IOException e)
+			{
+				if (f != null)
+					f.delete();
+				throw new UncheckedIOException("split(): Cannot spill elements to disk", e);
+			}
+		}
+
+		private IllegalStateException notSerializable(String className, Throwable cause)
+		{
+			return new IllegalStateException("split(): The elements buffered for a lagging stream cannot be spilled to disk: "
+				+ className + " is not Serializable", cause);
+		}
+
+		private void closeFile() throws IOException
+		{
+			in.close();
+			reading.delete();
+			in = null;
+			reading = null;
+		}
+
+		void discard()
+		{
+			mem.clear();
+			try
+			{
+				if (in != null)
+					closeFile();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			left = 0;
+			for (File f: files)
+				f.delete();
+			files.clear();
+			counts.clear();
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action)
+		{
+			Object e = take(this);
+			if (e == NONE)
+				return false;
+			action.accept(e != NULL ? (T) e : null);
+			return true;
+		}
+
+		@Override
+		public Spliterator<T> trySplit()
+		{
+			List<T> li = new ArrayList<T>(BATCH);
+			synchronized (Tee.this)
+			{
+				for (int i = 0; i < BATCH; i++)
+				{
+					Object e = take(this);
+					if (e == NONE)
+						break;
+					li.add(e != NULL ? (T) e : null);
+				}
+			}
+			if (li.size() > 0)
+				return Spliterators.spliterator(li.iterator(), li.size(), characteristics() | SIZED);
+			return null;
+		}
+
+		@Override
+		public int characteristics()
+		{
+			return source.characteristics() & (ORDERED | NONNULL | IMMUTABLE);
+		}
+
+		@Override
+		public long estimateSize()
+		{
+			return Long.MAX_VALUE;
+		}
+	}
+}
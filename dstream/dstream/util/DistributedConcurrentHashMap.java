@@ -0,0 +1,138 @@
+package dstream.util;
+
+import dstream.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Distributed Map backed by a ConcurrentHashMap on each node, so that
+ * parallel streams can add to it.
+ * Built by reduceByKey() and aggregateByKey(), which record the
+ * partitioner that decided on which node each key is stored.
+ */
+public class DistributedConcurrentHashMap<K, V> extends AbstractMap<K, V> implements DistributedMap<K, V>, ConcurrentMap<K, V>
+{
+	private final ConcurrentHashMap<K, V> m = new ConcurrentHashMap<>();
+	private final ComputeGroup grp;
+	private final Partitioner<? super K> p;
+
+	/**
+	 * Creates an empty map.
+	 * @param grp Group of nodes holding the map.
+	 * @param p Partitioner of the keys over the group, or NULL if the keys
+	 * are not partitioned.
+	 */
+	public DistributedConcurrentHashMap(ComputeGroup grp, Partitioner<? super K> p)
+	{
+		this.grp = grp;
+		this.p = p;
+	}
+
+	public DistributedConcurrentHashMap()
+	{
+		this(ComputeGroup.getCluster(), null);
+	}
+
+	@Override
+	public ComputeGroup getComputeGroup()
+	{
+		return grp;
+	}
+
+	@Override
+	public Partitioner<? super K> getPartitioner()
+	{
+		return p;
+	}
+
+	@Override
+	public DistributedSet<Map.Entry<K, V>> entrySet()
+	{
+		return DistributedSet.wrap(m.entrySet(), grp);
+	}
+
+	@Override
+	public DistributedSet<K> keySet()
+	{
+		return DistributedSet.wrap(m.keySet(), grp);
+	}
+
+	@Override
+	public DistributedCollection<V> values()
+	{
+		return DistributedCollection.wrap(m.values(), grp);
+	}
+
+	@Override
+	public int size()
+	{
+		return m.size();
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return m.containsKey(key);
+	}
+
+	@Override
+	public V get(Object key)
+	{
+		return m.get(key);
+	}
+
+	@Override
+	public V put(K key, V value)
+	{
+		return m.put(key, value);
+	}
+
+	@Override
+	public V remove(Object key)
+	{
+		return m.remove(key);
+	}
+
+	@Override
+	public void clear()
+	{
+		m.clear();
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value)
+	{
+		return m.putIfAbsent(key, value);
+	}
+
+	@Override
+	public boolean remove(Object key, Object value)
+	{
+		return m.remove(key, value);
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue)
+	{
+		return m.replace(key, oldValue, newValue);
+	}
+
+	@Override
+	public V replace(K key, V value)
+	{
+		return m.replace(key, value);
+	}
+
+	@Override
+	public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+	{
+		return m.merge(key, value, remappingFunction);
+	}
+
+	@Override
+	public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+	{
+		return m.compute(key, remappingFunction);
+	}
+}
@@ -2,6 +2,8 @@ package dstream.util;
 
 import dstream.*;
 import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 public interface DistributedMap<K, V> extends Map<K, V>
 {
@@ -14,11 +16,58 @@ public interface DistributedMap<K, V> extends Map<K, V>
 	 */
 	public ComputeGroup getComputeGroup();
 
+	/**
+	 * Returns the partitioner that decided on which node of the compute
+	 * group each key is stored, if any.
+	 * Keys for which the partitioner returns the same index modulo the
+	 * group size are then all stored on the node with that index.
+	 * @return Partitioner of the keys, or NULL if unknown.
+	 */
+	public default Partitioner<? super K> getPartitioner()
+	{
+		return null;
+	}
+
 	public DistributedCollection<V> values();
 
 	public DistributedSet<K> keySet();
 	public DistributedSet<Map.Entry<K, V>> entrySet();
 
+	/**
+	 * Joins the entries of this map with the values of their keys in
+	 * another map.
+	 * If both maps record the same partitioner over the same compute
+	 * group, each key is on the same node in both maps, and the entries
+	 * are joined locally without any communication. Otherwise the entries
+	 * are joined like a stream (see DistributedStream.join()).
+	 * @param other Map to join with.
+	 * @param joiner Function combining an entry with the value of its key
+	 * in the other map.
+	 * @return Distributed Stream with the result of joining each entry
+	 * whose key is in the other map.
+	 */
+	public default <W, R> DistributedStream<R> join(DistributedMap<K, W> other,
+		BiFunction<? super Map.Entry<K, V>, ? super W, ? extends R> joiner)
+	{
+		return MapJoin.join(this, other, joiner, false);
+	}
+
+	/**
+	 * Joins the entries of this map with the values of their keys in
+	 * another map, keeping entries whose key is not in the other map.
+	 * @param other Map to join with.
+	 * @param joiner Function combining an entry with the value of its key
+	 * in the other map, called with NULL as second argument if the key is
+	 * not in the other map.
+	 * @return Distributed Stream with the joined entries.
+	 * @see #join(DistributedMap, BiFunction)
+	 */
+	public default <W, R> DistributedStream<R> leftJoin(DistributedMap<K, W> other,
+		BiFunction<? super Map.Entry<K, V>, ? super W, ? extends R> joiner)
+	{
+		return MapJoin.join(this, other, joiner, true);
+	}
+
 	public static <K, V> DistributedMap<K, V> wrap(Map<K, V> m, ComputeGroup grp)
 	{
 		return new WrappedDistributedMap(m, grp);
@@ -30,6 +79,31 @@ public interface DistributedMap<K, V> extends Map<K, V>
 	}
 }
 
+class MapJoin
+{
+	private MapJoin() { } // Do not instantiate
+
+	static <K, V, W, R> DistributedStream<R> join(DistributedMap<K, V> map, DistributedMap<K, W> other,
+		BiFunction<? super Map.Entry<K, V>, ? super W, ? extends R> joiner, boolean outer)
+	{
+		Partitioner<? super K> p = map.getPartitioner();
+		if (p != null && p.equals(other.getPartitioner()) && map.getComputeGroup().equals(other.getComputeGroup()))
+		{
+			// Co-partitioned: both maps hold the same keys on each node
+			return map.entrySet().parallelStream().flatMap(e ->
+			{
+				W w = other.get(e.getKey());
+				if (w == null && !other.containsKey(e.getKey()))
+					return (outer ? Stream.<R>of(joiner.apply(e, null)) : Stream.<R>empty());
+				return Stream.<R>of(joiner.apply(e, w));
+			});
+		}
+		DistributedStream<Map.Entry<K, V>> entries = map.entrySet().parallelStream()
+			.map(e -> new AbstractMap.SimpleEntry<K, V>(e)); // Map.Entry is not serialisable
+		return (outer ? entries.leftJoin(other, e -> e.getKey(), joiner) : entries.join(other, e -> e.getKey(), joiner));
+	}
+}
+
 class WrappedDistributedMap<K, V> extends AbstractMap<K, V> implements DistributedMap<K, V>
 {
 	private ComputeGroup grp;